@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import temulg.yzr.basis.Nomen;
+
+/**
+ * Corpus holds a fixed, pseudo-randomly generated set of paths, shaped
+ * after source trees: ASCII or multi-byte element names, shallow (2 to 4
+ * elements) or deep (12 to 24 elements). Every path is available as
+ * elements, as a "/" delimited string (and its UTF-8 bytes), as
+ * {@link Path} and as {@link Nomen}, along with its leading half (the
+ * "base"), the rest of it and a "sibling" sharing the base with it, so
+ * that the same work can be measured with all three representations.
+ */
+@State(Scope.Benchmark)
+public class Corpus {
+	@Param({"ascii-short", "ascii-deep", "utf8-short", "utf8-deep"})
+	public String shape;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		var rnd = new Random(SEED);
+		var names = shape.startsWith("utf8") ? UTF8_NAMES : ASCII_NAMES;
+		int minDepth = shape.endsWith("deep") ? 12 : 2;
+		int maxDepth = shape.endsWith("deep") ? 24 : 4;
+
+		for (int pos = 0; pos < SIZE; pos++) {
+			var depth = minDepth + rnd.nextInt(
+				maxDepth - minDepth + 1
+			);
+			var el = new String[depth];
+
+			for (int d = 0; d < depth; d++)
+				el[d] = names[rnd.nextInt(names.length)];
+
+			var baseEl = Arrays.copyOf(el, depth / 2);
+			var relEl = Arrays.copyOfRange(el, depth / 2, depth);
+
+			elements[pos] = el;
+			strings[pos] = String.join("/", el);
+			utf8[pos] = strings[pos].getBytes(
+				StandardCharsets.UTF_8
+			);
+			baseStrings[pos] = String.join("/", baseEl);
+			relStrings[pos] = String.join("/", relEl);
+			paths[pos] = path(el);
+			basePaths[pos] = path(baseEl);
+			relPaths[pos] = path(relEl);
+			nomens[pos] = Nomen.from(el);
+			baseNomens[pos] = Nomen.from(baseEl);
+			relNomens[pos] = Nomen.from(relEl);
+		}
+
+		for (int pos = 0; pos < SIZE; pos++) {
+			var other = (pos + 1) & MASK;
+			siblingStrings[pos] = baseStrings[pos] + "/"
+				+ relStrings[other];
+			siblingPaths[pos] = basePaths[pos].resolve(
+				relPaths[other]
+			);
+			siblingNomens[pos] = baseNomens[pos].cat(
+				relNomens[other]
+			);
+		}
+	}
+
+	private static Path path(String[] el) {
+		return Paths.get("", el);
+	}
+
+	/* Benchmarks process the whole corpus per invocation. */
+	public static final int SIZE = 256;
+	private static final int MASK = SIZE - 1;
+
+	private static final long SEED = 0x59a2ecL;
+
+	private static final String[] ASCII_NAMES = {
+		"src", "main", "java", "test", "resources", "temulg", "yzr",
+		"core", "lib", "fs", "os", "ops", "marks", "basis", "build",
+		"include", "linux", "drivers", "net", "ipv4", "Makefile",
+		"Kconfig", "module-info.java", "Nomen.java", "a", "x86_64",
+		"generated-sources", "CMakeLists.txt", "node_modules", "v1.2.3"
+	};
+
+	/*
+	 * Cyrillic, Japanese, Chinese, Greek, Latin with diacritics, an
+	 * emoji and a supplementary CJK ideograph, Hebrew and Arabic.
+	 */
+	private static final String[] UTF8_NAMES = {
+		"src", "main",
+		"\u0434\u043e\u043a\u0443\u043c\u0435\u043d\u0442\u044b",
+		"\u043f\u0440\u043e\u0435\u043a\u0442",
+		"\u0438\u0441\u0445\u043e\u0434\u043d\u0438\u043a\u0438.c",
+		"\u30c6\u30b9\u30c8", "\u30d5\u30a1\u30a4\u30eb\u540d.txt",
+		"\u6570\u636e", "\u76ee\u5f55",
+		"\u0395\u03bb\u03bb\u03b7\u03bd\u03b9\u03ba\u03ac",
+		"na\u00efve", "caf\u00e9", "\u00c4rger", "smile\ud83d\ude00",
+		"\ud840\udc0b", "\u05d3\u05d5\u05d2\u05de\u05d4",
+		"\u0639\u0631\u0628\u0649", "build", "lib", "z\u00fcrich.h"
+	};
+
+	public final String[][] elements = new String[SIZE][];
+	public final String[] strings = new String[SIZE];
+	public final byte[][] utf8 = new byte[SIZE][];
+	public final String[] baseStrings = new String[SIZE];
+	public final String[] relStrings = new String[SIZE];
+	public final Path[] paths = new Path[SIZE];
+	public final Path[] basePaths = new Path[SIZE];
+	public final Path[] relPaths = new Path[SIZE];
+	public final Nomen[] nomens = new Nomen[SIZE];
+	public final Nomen[] baseNomens = new Nomen[SIZE];
+	public final Nomen[] relNomens = new Nomen[SIZE];
+	public final String[] siblingStrings = new String[SIZE];
+	public final Path[] siblingPaths = new Path[SIZE];
+	public final Nomen[] siblingNomens = new Nomen[SIZE];
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import temulg.yzr.basis.HashCode32;
+
+/**
+ * xxHash32 of word arrays against the polynomial hash of
+ * {@link Arrays#hashCode}; sizes span Nomen values of a single element to
+ * those of deep paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashCode32Bench {
+	@Param({"1", "2", "8", "32"})
+	public int size;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		var rnd = new Random(size);
+
+		longs = new long[size];
+		ints = new int[size];
+		for (int pos = 0; pos < size; pos++) {
+			longs[pos] = rnd.nextLong();
+			ints[pos] = rnd.nextInt();
+		}
+	}
+
+	@Benchmark
+	public int longsXxHash() {
+		return HashCode32.of(longs);
+	}
+
+	@Benchmark
+	public int longsArrays() {
+		return Arrays.hashCode(longs);
+	}
+
+	@Benchmark
+	public int intsXxHash() {
+		return HashCode32.of(ints);
+	}
+
+	@Benchmark
+	public int intsArrays() {
+		return Arrays.hashCode(ints);
+	}
+
+	private long[] longs;
+	private int[] ints;
+}
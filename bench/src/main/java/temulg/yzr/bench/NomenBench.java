@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import temulg.yzr.basis.Nomen;
+
+/**
+ * Every Nomen operation is paired with the nearest equivalent on
+ * {@link Path} and on plain "/" delimited strings. Scores are per whole
+ * corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NomenBench {
+	@Benchmark
+	public void fromNomen(Corpus c, Blackhole bh) {
+		for (var el: c.elements)
+			bh.consume(Nomen.from(el));
+	}
+
+	@Benchmark
+	public void fromUtf8Nomen(Corpus c, Blackhole bh) {
+		for (var b: c.utf8)
+			bh.consume(Nomen.fromUtf8(b));
+	}
+
+	/* Decoding paths to strings first, the way it is done otherwise. */
+	@Benchmark
+	public void fromUtf8String(Corpus c, Blackhole bh) {
+		for (var b: c.utf8)
+			bh.consume(Nomen.from(new String(
+				b, StandardCharsets.UTF_8
+			).split("/")));
+	}
+
+	@Benchmark
+	public void fromPath(Corpus c, Blackhole bh) {
+		for (var el: c.elements)
+			bh.consume(Path.of("", el));
+	}
+
+	@Benchmark
+	public void fromString(Corpus c, Blackhole bh) {
+		for (var el: c.elements)
+			bh.consume(String.join("/", el));
+	}
+
+	@Benchmark
+	public void catNomen(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(c.baseNomens[pos].cat(c.relNomens[pos]));
+	}
+
+	@Benchmark
+	public void catPath(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(c.basePaths[pos].resolve(c.relPaths[pos]));
+	}
+
+	@Benchmark
+	public void catString(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(
+				c.baseStrings[pos] + "/" + c.relStrings[pos]
+			);
+	}
+
+	@Benchmark
+	public void relativizeNomen(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(c.baseNomens[pos].relativize(
+				c.nomens[pos]
+			));
+	}
+
+	@Benchmark
+	public void relativizePath(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(c.basePaths[pos].relativize(c.paths[pos]));
+	}
+
+	@Benchmark
+	public void relativizeString(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++) {
+			var base = c.baseStrings[pos];
+			var s = c.strings[pos];
+
+			var len = base.length();
+			if (s.startsWith(base) && s.charAt(len) == '/')
+				bh.consume(s.substring(len + 1));
+		}
+	}
+
+	@Benchmark
+	public void commonPrefixNomen(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(c.nomens[pos].commonPrefix(
+				c.siblingNomens[pos]
+			));
+	}
+
+	@Benchmark
+	public void commonPrefixPath(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++) {
+			var l = c.paths[pos];
+			var r = c.siblingPaths[pos];
+			var count = Math.min(
+				l.getNameCount(), r.getNameCount()
+			);
+			int n = 0;
+
+			for (; n < count; n++) {
+				if (!l.getName(n).equals(r.getName(n)))
+					break;
+			}
+
+			bh.consume(n > 0 ? l.subpath(0, n) : null);
+		}
+	}
+
+	@Benchmark
+	public void commonPrefixString(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++) {
+			var l = c.strings[pos];
+			var r = c.siblingStrings[pos];
+			var count = Math.min(l.length(), r.length());
+			int last = 0;
+			int n = 0;
+
+			for (; n < count && l.charAt(n) == r.charAt(n); n++) {
+				if (l.charAt(n) == '/')
+					last = n;
+			}
+
+			if (n == count && (
+				n == l.length() || l.charAt(n) == '/'
+			) && (n == r.length() || r.charAt(n) == '/'))
+				last = n;
+
+			bh.consume(l.substring(0, last));
+		}
+	}
+
+	@Benchmark
+	public void compareNomen(Corpus c, Blackhole bh) {
+		var cmp = Nomen.lexicographicOrder();
+
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(cmp.compare(
+				c.nomens[pos], c.siblingNomens[pos]
+			));
+	}
+
+	@Benchmark
+	public void comparePath(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(c.paths[pos].compareTo(c.siblingPaths[pos]));
+	}
+
+	@Benchmark
+	public void compareString(Corpus c, Blackhole bh) {
+		for (int pos = 0; pos < Corpus.SIZE; pos++)
+			bh.consume(
+				c.strings[pos].compareTo(c.siblingStrings[pos])
+			);
+	}
+
+	/*
+	 * All three representations cache their hash codes, so hashing is
+	 * measured on fresh copies.
+	 */
+	@Benchmark
+	public void hashCodeNomen(Corpus c, Blackhole bh) {
+		for (var n: c.nomens)
+			bh.consume(n.subNomen(0, n.size()).hashCode());
+	}
+
+	@Benchmark
+	public void hashCodePath(Corpus c, Blackhole bh) {
+		for (var p: c.paths)
+			bh.consume(p.subpath(0, p.getNameCount()).hashCode());
+	}
+
+	@Benchmark
+	public void hashCodeString(Corpus c, Blackhole bh) {
+		for (var s: c.strings)
+			bh.consume(new String(s.toCharArray()).hashCode());
+	}
+
+	/* Fresh copies again, all but the first finding a table entry. */
+	@Benchmark
+	public void internNomen(Corpus c, Blackhole bh) {
+		for (var n: c.nomens)
+			bh.consume(n.subNomen(0, n.size()).intern());
+	}
+
+	@Benchmark
+	public void toStringNomen(Corpus c, Blackhole bh) {
+		for (var n: c.nomens)
+			bh.consume(n.toString());
+	}
+
+	/* Path caches its string form, hence a fresh copy again. */
+	@Benchmark
+	public void toStringPath(Corpus c, Blackhole bh) {
+		for (var p: c.paths)
+			bh.consume(p.subpath(0, p.getNameCount()).toString());
+	}
+
+	@Benchmark
+	public void iteratorNomen(Corpus c, Blackhole bh) {
+		for (var n: c.nomens) {
+			for (var el: n)
+				bh.consume(el);
+		}
+	}
+
+	/*
+	 * Hashing every element, as a lookup walking the path would,
+	 * through sub-names and through a cursor.
+	 */
+	@Benchmark
+	public void iteratorHashNomen(Corpus c, Blackhole bh) {
+		for (var n: c.nomens) {
+			for (var el: n)
+				bh.consume(el.hashCode());
+		}
+	}
+
+	@Benchmark
+	public void cursorHashNomen(Corpus c, Blackhole bh) {
+		var cur = new Nomen.Cursor();
+
+		for (var n: c.nomens) {
+			cur.reset(n);
+			while (cur.next())
+				bh.consume(cur.elementHash());
+		}
+	}
+
+	@Benchmark
+	public void iteratorPath(Corpus c, Blackhole bh) {
+		for (var p: c.paths) {
+			for (var el: p)
+				bh.consume(el);
+		}
+	}
+
+	@Benchmark
+	public void iteratorString(Corpus c, Blackhole bh) {
+		for (var s: c.strings) {
+			int first = 0;
+
+			while (true) {
+				var last = s.indexOf('/', first);
+				if (last < 0) {
+					bh.consume(s.substring(first));
+					break;
+				}
+
+				bh.consume(s.substring(first, last));
+				first = last + 1;
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import temulg.yzr.basis.Nomen;
+import temulg.yzr.basis.NomenTrie;
+
+/**
+ * Lookups in a {@link NomenTrie} of source tree like paths, against a
+ * linear scan with {@link Nomen#isPrefixOf}. Scores are per single query.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class NomenTrieBench {
+	@Param({"1000", "1000000"})
+	public int size;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		var rnd = new Random(SEED);
+
+		keys = new Nomen[size];
+		queries = new Nomen[QUERY_COUNT];
+		dirs = new Nomen[QUERY_COUNT];
+
+		for (int pos = 0; pos < size; pos++) {
+			keys[pos] = Nomen.from(
+				"src", "module" + (pos % 97),
+				"pkg" + (pos / 97 % 31), "File" + pos + ".java"
+			);
+			trie.put(keys[pos], pos);
+		}
+
+		for (int pos = 0; pos < QUERY_COUNT; pos++) {
+			var k = keys[rnd.nextInt(size)];
+			queries[pos] = k.cat(Nomen.from("inner", "member"));
+			dirs[pos] = k.subNomen(0, 3);
+		}
+	}
+
+	@Benchmark
+	public void getTrie(Blackhole bh) {
+		bh.consume(trie.get(keys[next() % size]));
+	}
+
+	@Benchmark
+	public void longestPrefixTrie(Blackhole bh) {
+		bh.consume(trie.longestPrefixOf(queries[next()]));
+	}
+
+	@Benchmark
+	public void longestPrefixScan(Blackhole bh) {
+		var q = queries[next()];
+		Nomen out = null;
+
+		for (var k: keys) {
+			if (k.isPrefixOf(q) && (
+				(out == null) || (out.size() < k.size())
+			))
+				out = k;
+		}
+
+		bh.consume(out);
+	}
+
+	@Benchmark
+	public void underTrie(Blackhole bh) {
+		trie.forEachUnder(dirs[next()], (k, v) -> bh.consume(v));
+	}
+
+	@Benchmark
+	public void underScan(Blackhole bh) {
+		var d = dirs[next()];
+
+		for (var k: keys) {
+			if (d.isPrefixOf(k))
+				bh.consume(k);
+		}
+	}
+
+	private int next() {
+		cursor = (cursor + 1) & (QUERY_COUNT - 1);
+		return cursor;
+	}
+
+	private static final long SEED = 0x4e6f6d656e547269L;
+	private static final int QUERY_COUNT = 1024;
+
+	private final NomenTrie<Integer> trie = new NomenTrie<>();
+	private Nomen[] keys;
+	private Nomen[] queries;
+	private Nomen[] dirs;
+	private int cursor;
+}
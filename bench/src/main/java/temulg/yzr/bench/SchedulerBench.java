@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import temulg.yzr.core.ActionTracker;
+import temulg.yzr.core.Context;
+import temulg.yzr.core.OpGraph;
+
+/**
+ * Scheduling overhead of whole graphs of no-op actions (see
+ * {@link Shapes}): "track" only makes an action tracker, "run" also runs
+ * it to completion. Scores are per graph; run with "-prof gc" to obtain
+ * allocations. {@link SchedulerReport} gives per action figures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class SchedulerBench {
+	@Param({"fan-out", "chain", "diamond", "power-law"})
+	public String shape;
+
+	@Param({"10000", "1000000"})
+	public int vertices;
+
+	/* Number of CPU slots, that is of actions run at once. */
+	@Param({"1", "4"})
+	public int cpus;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		opg = Shapes.make(shape, vertices);
+		ctx = Context.builder().cpuTokens(cpus).build();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ctx.shutdown();
+	}
+
+	@Benchmark
+	public ActionTracker track() {
+		return opg.makeActionTracker(ctx);
+	}
+
+	@Benchmark
+	public ActionTracker run() {
+		var at = opg.makeActionTracker(ctx);
+		at.start();
+		ctx.awaitTermination();
+		return at;
+	}
+
+	private OpGraph opg;
+	private Context ctx;
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.bench;
+
+import java.lang.management.ManagementFactory;
+
+import temulg.yzr.core.Context;
+
+/**
+ * End-to-end scheduler report: for every graph shape, makes and runs
+ * action trackers with 1 to N CPU slots (doubling every time), printing
+ * per action setup and run times, allocated bytes and speedup over a
+ * single slot.
+ *
+ * Arguments (all optional): vertex count, maximal number of CPU slots,
+ * number of rounds per configuration, of which the first half is taken
+ * for warm up.
+ */
+public class SchedulerReport {
+	public static void main(String... args) {
+		int vertices = 1000000;
+		int maxCpus = Runtime.getRuntime().availableProcessors();
+		int rounds = 10;
+
+		if (args.length > 0)
+			vertices = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			maxCpus = Integer.parseInt(args[1]);
+		if (args.length > 2)
+			rounds = Integer.parseInt(args[2]);
+
+		System.out.format(
+			"%-10s %8s %5s %10s %10s %10s %8s%n", "shape",
+			"vertices", "cpus", "setup ns", "run ns", "bytes",
+			"speedup"
+		);
+
+		for (var shape: Shapes.NAMES) {
+			var opg = Shapes.make(shape, vertices);
+			double base = 0;
+
+			for (int cpus = 1; cpus <= maxCpus; cpus *= 2) {
+				var ctx = Context.builder().cpuTokens(
+					cpus
+				).build();
+				long setup = 0, run = 0, bytes = 0;
+				int measured = 0;
+
+				for (int round = 0; round < rounds; round++) {
+					var a0 = allocatedBytes();
+					var t0 = System.nanoTime();
+					var at = opg.makeActionTracker(ctx);
+					var t1 = System.nanoTime();
+					at.start();
+					ctx.awaitTermination();
+					var t2 = System.nanoTime();
+					var a1 = allocatedBytes();
+
+					if (round < rounds / 2)
+						continue;
+
+					setup += t1 - t0;
+					run += t2 - t1;
+					bytes += a1 - a0;
+					measured++;
+				}
+
+				ctx.shutdown();
+
+				var actions = (double)vertices * measured;
+				var runNs = run / actions;
+				if (cpus == 1)
+					base = runNs;
+
+				System.out.format(
+					ROW_FORMAT, shape, vertices, cpus,
+					setup / actions, runNs,
+					bytes / actions, base / runNs
+				);
+			}
+		}
+	}
+
+	private static final String ROW_FORMAT
+	= "%-10s %8d %5d %10.1f %10.1f %10.1f %8.2f%n";
+
+	/*
+	 * Allocations are only accounted for live threads; pool workers
+	 * outlive a round by far, so nothing of note is lost.
+	 */
+	private static long allocatedBytes() {
+		var mx = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		long sum = 0;
+
+		var ids = mx.getAllThreadIds();
+		for (var b: mx.getThreadAllocatedBytes(ids)) {
+			if (b > 0)
+				sum += b;
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import temulg.yzr.core.Entity;
+import temulg.yzr.core.Mark;
+import temulg.yzr.core.OpGraph;
+import temulg.yzr.core.Operator;
+import temulg.yzr.core.ProdPack;
+import temulg.yzr.core.ReqPack;
+
+/**
+ * Shapes makes synthetic operator graphs of no-op operators, so that only
+ * the overhead of scheduling actions is left to be measured:
+ * <ul>
+ * <li>fan-out: a single root with all other operators depending on it;
+ * </li>
+ * <li>chain: a single linear chain;</li>
+ * <li>diamond: a chain of diamonds, each forking into two and joining
+ * back;</li>
+ * <li>power-law: a random DAG, where operators depend on a power-law
+ * distributed number of earlier ones, picked in proportion to their
+ * existing out-degree.</li>
+ * </ul>
+ */
+public class Shapes {
+	private Shapes() {
+	}
+
+	public static final String[] NAMES = {
+		"fan-out", "chain", "diamond", "power-law"
+	};
+
+	public static OpGraph make(String shape, int vertices) {
+		switch (shape) {
+		case "fan-out":
+			return fanOut(vertices);
+		case "chain":
+			return chain(vertices);
+		case "diamond":
+			return diamond(vertices);
+		case "power-law":
+			return powerLaw(vertices, SEED);
+		default:
+			throw new IllegalArgumentException(
+				"Unknown graph shape " + shape
+			);
+		}
+	}
+
+	public static OpGraph fanOut(int vertices) {
+		var opg = new OpGraph();
+		var root = new NoOp();
+
+		for (int pos = 1; pos < vertices; pos++)
+			opg.Add(root, PACK, new NoOp(), PACK);
+
+		return opg;
+	}
+
+	public static OpGraph chain(int vertices) {
+		var opg = new OpGraph();
+		var prev = new NoOp();
+
+		for (int pos = 1; pos < vertices; pos++) {
+			var next = new NoOp();
+			opg.Add(prev, PACK, next, PACK);
+			prev = next;
+		}
+		return opg;
+	}
+
+	public static OpGraph diamond(int vertices) {
+		var opg = new OpGraph();
+		var top = new NoOp();
+
+		for (int pos = 1; pos + 2 < vertices; pos += 3) {
+			var left = new NoOp();
+			var right = new NoOp();
+			var bottom = new NoOp();
+
+			opg.Add(top, PACK, left, PACK);
+			opg.Add(top, PACK, right, PACK);
+			opg.Add(left, PACK, bottom, PACK);
+			opg.Add(right, PACK, bottom, PACK);
+			top = bottom;
+		}
+		return opg;
+	}
+
+	/*
+	 * Preferential attachment: picking a random end of a random existing
+	 * edge (half of the time, uniformly otherwise) favours operators in
+	 * proportion to their degree, which makes for the heavy tailed
+	 * fan-out of real build graphs (a few headers or tools everything
+	 * depends on).
+	 */
+	public static OpGraph powerLaw(int vertices, long seed) {
+		var rnd = new Random(seed);
+		var opg = new OpGraph();
+		var ops = new NoOp[vertices];
+		var ends = new int[4 * vertices];
+		int endCount = 0;
+
+		ops[0] = new NoOp();
+		for (int pos = 1; pos < vertices; pos++) {
+			ops[pos] = new NoOp();
+
+			var degree = Math.min(pos, Math.min(
+				MAX_DEGREE,
+				(int)Math.pow(1 - rnd.nextDouble(), -1 / ALPHA)
+			));
+			var picked = new int[degree];
+
+			for (int d = 0; d < degree; d++) {
+				int src;
+				do {
+					src = endCount > 0 && rnd.nextBoolean()
+						? ends[rnd.nextInt(endCount)]
+						: rnd.nextInt(pos);
+				} while (contains(picked, d, src));
+
+				picked[d] = src;
+				opg.Add(ops[src], PACK, ops[pos], PACK);
+			}
+
+			if (endCount + 2 * degree > ends.length)
+				ends = Arrays.copyOf(ends, 2 * ends.length);
+
+			for (var src: picked) {
+				ends[endCount++] = src;
+				ends[endCount++] = pos;
+			}
+		}
+		return opg;
+	}
+
+	private static boolean contains(int[] picked, int count, int v) {
+		for (int pos = 0; pos < count; pos++) {
+			if (picked[pos] == v)
+				return true;
+		}
+		return false;
+	}
+
+	public static class NoOp extends Entity implements Operator {
+		@Override
+		public ReqPack newRequisites() {
+			return PACK;
+		}
+
+		@Override
+		public ProdPack newProducts() {
+			return PACK;
+		}
+
+		@Override
+		public void apply(
+			Action act, ReqPack.Storage requisites,
+			ProdPack.Storage products
+		) {
+		}
+	}
+
+	/*
+	 * Marks are never passed around, so one stateless pack can stand for
+	 * everything the graph and tracker ask for.
+	 */
+	public static class Pack implements ReqPack, ProdPack, ReqPack.Selector,
+	ProdPack.Selector, ReqPack.Storage, ProdPack.Storage, ReqPack.Setter,
+	ProdPack.Getter {
+		@Override
+		public ReqPack.Setter select(ReqPack.Selector sel) {
+			return this;
+		}
+
+		@Override
+		public ProdPack.Getter select(ProdPack.Selector sel) {
+			return this;
+		}
+
+		@Override
+		public Pack allocate() {
+			return this;
+		}
+
+		@Override
+		public void forEach(Consumer<? super Mark> cons) {
+		}
+
+		@Override
+		public void set(ReqPack.Storage s, Mark m) {
+		}
+
+		@Override
+		public <M extends Mark> M get(ProdPack.Storage s) {
+			return null;
+		}
+	}
+
+	private static final long SEED = 0x5ca1eL;
+	private static final int MAX_DEGREE = 32;
+	private static final double ALPHA = 1.5;
+
+	public static final Pack PACK = new Pack();
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import temulg.yzr.basis.Utf8Helper;
+
+/**
+ * Code point at a time UTF-8 coding of Utf8Helper, as used by Nomen,
+ * against the bulk coding of {@link String}. Scores are per whole corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Utf8HelperBench {
+	/**
+	 * Corpus paths encoded one code point per word, along with their
+	 * UTF-8 bytes.
+	 */
+	@State(Scope.Benchmark)
+	public static class Encoded {
+		@Setup(Level.Trial)
+		public void setup(Corpus c) {
+			for (int pos = 0; pos < Corpus.SIZE; pos++) {
+				var s = c.strings[pos];
+
+				bytes[pos] = s.getBytes(StandardCharsets.UTF_8);
+				words[pos] = s.codePoints().mapToLong(
+					Utf8HelperBench::encode
+				).toArray();
+			}
+		}
+
+		final byte[][] bytes = new byte[Corpus.SIZE][];
+		final long[][] words = new long[Corpus.SIZE][];
+	}
+
+	@Benchmark
+	public void lengthHelper(Corpus c, Blackhole bh) {
+		for (var s: c.strings)
+			bh.consume(Utf8Helper.encodedBitLength(
+				s, 0, s.length()
+			));
+	}
+
+	@Benchmark
+	public void lengthString(Corpus c, Blackhole bh) {
+		for (var s: c.strings)
+			bh.consume(s.getBytes(StandardCharsets.UTF_8).length);
+	}
+
+	@Benchmark
+	public void encodeHelper(Corpus c, Blackhole bh) {
+		for (var s: c.strings) {
+			for (int pos = 0; pos < s.length();) {
+				var cp = s.codePointAt(pos);
+				bh.consume(encode(cp));
+				pos += Character.charCount(cp);
+			}
+		}
+	}
+
+	@Benchmark
+	public void encodeString(Corpus c, Blackhole bh) {
+		for (var s: c.strings)
+			bh.consume(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public void decodeHelper(Encoded e, Blackhole bh) {
+		for (var ws: e.words) {
+			for (var w: ws) {
+				var len = Utf8Helper.codepointBits(
+					(byte)(w >>> 56)
+				);
+				bh.consume(
+					Utf8Helper.decodeCodepointBE(w, len)
+				);
+			}
+		}
+	}
+
+	@Benchmark
+	public void decodeString(Encoded e, Blackhole bh) {
+		for (var b: e.bytes)
+			bh.consume(new String(b, StandardCharsets.UTF_8));
+	}
+
+	private static long encode(int cp) {
+		return Utf8Helper.encodeCodepointBE(
+			cp, Utf8Helper.encodedBitLength(cp)
+		);
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ActionCache is a local, content addressed store of action products,
+ * which may be shared by any number of concurrent builds on the same host.
+ *
+ * An entry is keyed by the operator signature and the content digests of
+ * the tool binary (see {@link Operator#tool}) and of all requisites.
+ * Entries are published by atomic renames and retired by renaming them
+ * away before removal, so readers never observe partial entries. Total
+ * size of the cache is kept within a byte budget by evicting the least
+ * recently used entries, with eviction serialized across processes by a
+ * lock file.
+ */
+public class ActionCache {
+	/**
+	 * Marks able to save their content into and restore it from a
+	 * cache entry.
+	 */
+	public interface Storable {
+		void saveTo(Path dst) throws IOException;
+
+		void restoreFrom(Path src) throws IOException;
+	}
+
+	public static ActionCache open(
+		Path dir, long byteBudget
+	) throws IOException {
+		return new ActionCache(dir, byteBudget);
+	}
+
+	private ActionCache(Path dir, long byteBudget_) throws IOException {
+		entries = Files.createDirectories(dir.resolve("entries"));
+		staging = Files.createDirectories(dir.resolve("staging"));
+		lockFile = dir.resolve("lock");
+		byteBudget = byteBudget_;
+		approxSize.set(scanSize());
+	}
+
+	/**
+	 * Computes cache key of an action, or returns null if the action's
+	 * requisites can not be reliably identified by content.
+	 */
+	public String key(Operator op, ReqPack.Storage requisites) {
+		var sig = op.signature();
+		if (sig == null)
+			return null;
+
+		var md = newDigest();
+		md.update(sig.getBytes(StandardCharsets.UTF_8));
+
+		var tool = op.tool();
+		if (tool != null && !update(md, tool))
+			return null;
+
+		var good = new boolean[] {true};
+		requisites.forEach(m -> {
+			if (good[0])
+				good[0] = update(md, m);
+		});
+
+		return good[0] ? toHex(md.digest()) : null;
+	}
+
+	private static boolean update(MessageDigest md, Mark m) {
+		var d = m != null ? m.digest() : null;
+		if (d == null || d.isEmpty())
+			return false;
+
+		long v = d.getAsLong();
+		for (int shift = 56; shift >= 0; shift -= 8)
+			md.update((byte)(v >>> shift));
+
+		return true;
+	}
+
+	public boolean restore(String key, ProdPack.Storage products) {
+		var entry = entries.resolve(key);
+		if (!Files.isDirectory(entry))
+			return false;
+
+		try {
+			var marks = collect(products);
+			if (marks == null)
+				return false;
+
+			for (int pos = 0; pos < marks.size(); pos++)
+				marks.get(pos).restoreFrom(
+					entry.resolve(Integer.toString(pos))
+				);
+
+			Files.setLastModifiedTime(
+				entry, FileTime.fromMillis(
+					System.currentTimeMillis()
+				)
+			);
+			return true;
+		} catch (IOException ex) {
+			/*
+			 * Entry was evicted by a concurrent build; the action
+			 * will simply be applied and overwrite whatever was
+			 * restored.
+			 */
+			return false;
+		}
+	}
+
+	public void store(String key, ProdPack.Storage products) {
+		var entry = entries.resolve(key);
+		if (Files.isDirectory(entry))
+			return;
+
+		var marks = collect(products);
+		if (marks == null)
+			return;
+
+		var tmp = staging.resolve(UUID.randomUUID().toString());
+		try {
+			Files.createDirectory(tmp);
+			for (int pos = 0; pos < marks.size(); pos++)
+				marks.get(pos).saveTo(
+					tmp.resolve(Integer.toString(pos))
+				);
+
+			long sz = directorySize(tmp);
+			Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+
+			if (approxSize.addAndGet(sz) > byteBudget)
+				evict();
+		} catch (IOException ex) {
+			/*
+			 * Published concurrently by another build: renaming
+			 * onto an existing entry fails with ENOTEMPTY, not
+			 * FileAlreadyExistsException.
+			 */
+			if (!Files.isDirectory(entry))
+				System.out.println(ex);
+		} finally {
+			removeTree(tmp);
+		}
+	}
+
+	/*
+	 * Eviction is performed by a single thread of a single process at a
+	 * time; whoever fails to obtain the lock simply skips it, as the
+	 * current holder will bring the size down anyway. Another instance
+	 * over the same directory in this very process holding the lock is
+	 * reported as an overlapping lock, rather than as a failure to lock.
+	 */
+	private synchronized void evict() {
+		try (var ch = FileChannel.open(
+			lockFile, StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE
+		)) {
+			FileLock lock;
+			try {
+				lock = ch.tryLock();
+			} catch (OverlappingFileLockException ex) {
+				return;
+			}
+
+			if (lock == null)
+				return;
+
+			var all = new ArrayList<Entry>();
+			long total = 0;
+			try (var ds = Files.newDirectoryStream(entries)) {
+				for (var p: ds) {
+					try {
+						var e = new Entry(p);
+						all.add(e);
+						total += e.size;
+					} catch (IOException ex) {
+						continue;
+					}
+				}
+			}
+
+			all.sort(Comparator.comparingLong(e -> e.lastUsed));
+
+			long target = byteBudget - (byteBudget >>> 3);
+			for (var e: all) {
+				if (total <= target)
+					break;
+
+				var tmp = staging.resolve(
+					UUID.randomUUID().toString()
+				);
+				try {
+					Files.move(
+						e.path, tmp,
+						StandardCopyOption.ATOMIC_MOVE
+					);
+				} catch (IOException ex) {
+					continue;
+				}
+				removeTree(tmp);
+				total -= e.size;
+			}
+
+			approxSize.set(total);
+		} catch (IOException ex) {
+			System.out.println(ex);
+		}
+	}
+
+	private static class Entry {
+		Entry(Path path_) throws IOException {
+			path = path_;
+			lastUsed = Files.getLastModifiedTime(path).toMillis();
+			size = directorySize(path);
+		}
+
+		final Path path;
+		final long lastUsed;
+		final long size;
+	}
+
+	private static ArrayList<Storable> collect(ProdPack.Storage products) {
+		var marks = new ArrayList<Storable>();
+		var good = new boolean[] {true};
+
+		products.forEach(m -> {
+			if (m instanceof Storable)
+				marks.add((Storable)m);
+			else
+				good[0] = false;
+		});
+
+		return good[0] ? marks : null;
+	}
+
+	private long scanSize() throws IOException {
+		long total = 0;
+		try (var ds = Files.newDirectoryStream(entries)) {
+			for (var p: ds)
+				total += directorySize(p);
+		}
+		return total;
+	}
+
+	private static long directorySize(Path dir) throws IOException {
+		long total = 0;
+		try (var ds = Files.newDirectoryStream(dir)) {
+			for (var p: ds)
+				total += Files.size(p);
+		}
+		return total;
+	}
+
+	private static void removeTree(Path dir) {
+		try (var ds = Files.newDirectoryStream(dir)) {
+			for (var p: ds)
+				Files.deleteIfExists(p);
+
+			Files.deleteIfExists(dir);
+		} catch (IOException ex) {
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private static String toHex(byte[] b) {
+		var sb = new StringBuilder(b.length << 1);
+		for (var v: b)
+			sb.append(HEX_DIGITS[(v >>> 4) & 0xf]).append(
+				HEX_DIGITS[v & 0xf]
+			);
+
+		return sb.toString();
+	}
+
+	private static final char[] HEX_DIGITS
+	= "0123456789abcdef".toCharArray();
+
+	private final Path entries;
+	private final Path staging;
+	private final Path lockFile;
+	private final long byteBudget;
+	private final AtomicLong approxSize = new AtomicLong();
+}
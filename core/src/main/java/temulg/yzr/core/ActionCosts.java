@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * ActionCosts keeps smoothed durations of operator actions observed in
+ * earlier runs. They are used to rank ready actions by the length of the
+ * remaining critical path, so that long serial chains are started first.
+ *
+ * Peak memory use of actions is kept as well, to avoid starting more
+ * memory hungry actions at once than the machine can accommodate.
+ */
+public class ActionCosts {
+	public void record(Operator op, long nanos) {
+		durations.merge(key(op), nanos, (prev, cur) -> {
+			return (prev * 3 + cur) >>> 2;
+		});
+		totalNanos.addAndGet(nanos);
+		sampleCount.incrementAndGet();
+	}
+
+	/**
+	 * Records peak memory use of an action. Estimates follow increases
+	 * immediately, but decay only slowly, as underestimating is far
+	 * costlier than overestimating.
+	 */
+	public void recordMemory(Operator op, long bytes) {
+		memory.merge(key(op), bytes, (prev, cur) -> {
+			return cur >= prev ? cur : prev - ((prev - cur) >>> 3);
+		});
+	}
+
+	/**
+	 * Returns expected peak memory use of an action in bytes, or 0 if
+	 * not known.
+	 */
+	public long memoryEstimate(Operator op) {
+		var m = memory.get(key(op));
+		return m != null ? m : 0;
+	}
+
+	/**
+	 * Returns expected duration of an action in nanoseconds.
+	 *
+	 * Operators never seen before are assumed to take as long as an
+	 * average action; when nothing was recorded at all every action
+	 * costs exactly one unit, making the critical path equal to the
+	 * graph depth.
+	 */
+	public long estimate(Operator op) {
+		var d = durations.get(key(op));
+		return d != null ? Math.max(d, 1) : defaultEstimate();
+	}
+
+	public long defaultEstimate() {
+		long count = sampleCount.get();
+		return count > 0 ? Math.max(totalNanos.get() / count, 1) : 1;
+	}
+
+	void restore(String sig, Long nanos) {
+		if (durations.putIfAbsent(sig, nanos) == null) {
+			totalNanos.addAndGet(nanos);
+			sampleCount.incrementAndGet();
+		}
+	}
+
+	void restoreMemory(String sig, Long bytes) {
+		memory.putIfAbsent(sig, bytes);
+	}
+
+	/*
+	 * Only costs of operators with a signature can be matched across
+	 * runs.
+	 */
+	void forEachPersistent(BiConsumer<String, Long> cons) {
+		forEachPersistent(durations, cons);
+	}
+
+	void forEachPersistentMemory(BiConsumer<String, Long> cons) {
+		forEachPersistent(memory, cons);
+	}
+
+	private static void forEachPersistent(
+		ConcurrentHashMap<Object, Long> m, BiConsumer<String, Long> cons
+	) {
+		m.forEach((k, v) -> {
+			if (k instanceof String)
+				cons.accept((String)k, v);
+		});
+	}
+
+	private static Object key(Operator op) {
+		var sig = op.signature();
+		return sig != null ? sig : op.entity().getEID();
+	}
+
+	private final ConcurrentHashMap<
+		Object, Long
+	> durations = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<
+		Object, Long
+	> memory = new ConcurrentHashMap<>();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong sampleCount = new AtomicLong();
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+/**
+ * ActionProbe is notified of every action completed by an action tracker,
+ * along with the instants (as per {@link System#nanoTime}) of the action
+ * becoming ready, being dispatched to a thread and starting and finishing
+ * running on it.
+ *
+ * Probes are invoked from worker threads concurrently and should not
+ * take long.
+ */
+public interface ActionProbe {
+	void actionCompleted(
+		Operator op, long readyNanos, long dispatchedNanos,
+		long startedNanos, long finishedNanos, Thread thread,
+		boolean skipped
+	);
+}
@@ -6,19 +6,35 @@
 
 package temulg.yzr.core;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 public class ActionTracker {
-	ActionTracker(Context context_, int actionCount_) {
+	ActionTracker(
+		Context context_, OpGraph.Frozen graph_, Item[] items_,
+		int actionCount_
+	) {
 		context = context_;
+		graph = graph_;
+		items = items_;
 		actionCount = actionCount_;
+		members = new ArrayList<>(actionCount);
+		probe = context.probe();
 	}
 
 	public void start() {
-		roots.forEach(context::execute);
+		if (timed()) {
+			var now = System.nanoTime();
+			roots.forEach(it -> it.readyAt = now);
+		}
+
+		roots.forEach(this::dispatch);
 		roots.clear();
 	}
 
@@ -26,65 +42,317 @@ public class ActionTracker {
 		aborted = true;
 	}
 
-	private static class ItemLink {
-		ItemLink(Item it_, ProdPack.Getter prod_, ReqPack.Setter req_) {
-			it = it_;
-			prod = prod_;
-			req = req_;
-		}
-		final Item it;
-		final ProdPack.Getter prod;
-		final ReqPack.Setter req;
+	/**
+	 * Visits all requisite marks of actions belonging to this tracker,
+	 * along with the respective operators. Only meaningful once the
+	 * tracker has run to completion.
+	 */
+	public void forEachRequisite(BiConsumer<Operator, Mark> cons) {
+		members.forEach(it -> it.requisites.forEach(m -> {
+			if (m != null)
+				cons.accept(it.v.op, m);
+		}));
+	}
+
+	/**
+	 * Visits all product marks of actions belonging to this tracker,
+	 * along with the respective operators.
+	 */
+	public void forEachProduct(BiConsumer<Operator, Mark> cons) {
+		members.forEach(it -> it.products.forEach(m -> {
+			if (m != null)
+				cons.accept(it.v.op, m);
+		}));
 	}
 
 	class Item implements Operator.Action, Runnable {
-		Item(
-			OpGraph.Vertex v_, int prevCount_, int nextCount
-		) {
-			v = v_;
+		Item(int index_, int prevCount_, long critPath_) {
+			index = index_;
+			v = graph.vertices[index];
 			prevCount = prevCount_;
-			next = new ArrayList<>(nextCount);
+			critPath = critPath_;
+			io = context.hasIoExecutor() && v.op.ioBound();
+
+			var res = v.op.resources();
+			var mem = context.costs().memoryEstimate(v.op);
+			cpuSlots = res.cpu();
+			ioSlots = res.io();
+			memBytes = Math.max(res.memory(), mem);
 			requisites = v.requisites.allocate();
 			products = v.products.allocate();
+			members.add(this);
 		}
 
+		/*
+		 * Once an action completes, the worker thread carries on with
+		 * one of the successors made ready by it, if any, instead of
+		 * queueing it. Linear chains of actions thus stay on the same
+		 * thread without any executor round trips.
+		 */
 		@Override
 		public void run() {
-			if (aborted)
-				return;
+			var it = this;
+
+			do {
+				it = it.step();
+			} while (it != null);
+		}
+
+		private Item step() {
+			if (aborted) {
+				release();
+				return null;
+			}
 
-			actionsStarted.incrementAndGet();
-			prodsUpdated = reqsUpdated.get();
+			var ev = FlightEvents.actionEnabled()
+				? new FlightEvents.Action() : null;
+			if (ev != null)
+				ev.begin();
+
+			actionsStarted.increment();
+			prodsUpdated = reqsUpdated;
+			if (timed())
+				startedAt = System.nanoTime();
 
 			try {
-				v.op.apply(this, requisites, products);
+				if (!upToDate()) {
+					if (!restoreCached()) {
+						apply();
+						storeCached();
+					}
+					cutOff();
+					recordState();
+				}
 
-				scheduleNext();
+				release();
+				return scheduleNext();
 			} catch (Exception ex) {
 				System.out.println(ex);
 				aborted = true;
+				recordState();
+				release();
+				return null;
 			} finally {
-				actionsCompleted.incrementAndGet();
+				actionsCompleted.increment();
+				completed(ev);
 			}
 		}
 
-		private boolean markReady(Instant inst_) {
-			reqsUpdated.accumulateAndGet(inst_, (prev, inst) -> {
-				return inst.isAfter(prev) ? inst : prev;
-			});
+		private void dispatched() {
+			var enabled = FlightEvents.actionDispatchEnabled();
+			if (probe == null && !enabled)
+				return;
+
+			dispatchedAt = System.nanoTime();
+			if (!enabled)
+				return;
 
-			return prevCompleted.incrementAndGet() == prevCount;
+			var ev = new FlightEvents.ActionDispatch();
+			if (ev.shouldCommit()) {
+				ev.operator = v.op.getClass();
+				ev.path = firstProduct();
+				ev.queueLatency = since(readyAt, dispatchedAt);
+				ev.commit();
+			}
+		}
+
+		private void completed(FlightEvents.Action ev) {
+			if (probe != null)
+				probe.actionCompleted(
+					v.op, readyAt, dispatchedAt, startedAt,
+					System.nanoTime(),
+					Thread.currentThread(), skipped
+				);
+
+			if (ev != null && ev.shouldCommit()) {
+				ev.operator = v.op.getClass();
+				ev.path = firstProduct();
+				ev.queueLatency = since(readyAt, startedAt);
+				ev.skipped = skipped;
+				ev.commit();
+			}
 		}
 
-		private void scheduleNext() {
-			next.forEach(next -> {
-				var m = next.prod.get(products);
-				next.req.set(next.it.requisites, m);
+		/*
+		 * Instants are not taken while nobody is watching, so the one
+		 * of becoming ready may be missing if a recording has started
+		 * in the meantime.
+		 */
+		private long since(long from, long to) {
+			return from != 0 && to != 0 ? to - from : 0;
+		}
 
-				if (next.it.markReady(prodsUpdated) && !aborted)
-					context.execute(next.it);
+		private String firstProduct() {
+			var first = new Mark[1];
+			products.forEach(m -> {
+				if (first[0] == null)
+					first[0] = m;
 			});
-			next.clear();
+			return first[0] != null ? first[0].toString() : null;
+		}
+
+		Operator operator() {
+			return v.op;
+		}
+
+		private void apply() throws Exception {
+			var jobs = context.acquireJobs(cpuSlots);
+
+			try {
+				long t0 = System.nanoTime();
+				v.op.apply(this, requisites, products);
+				context.costs().record(
+					v.op, System.nanoTime() - t0
+				);
+			} finally {
+				context.releaseJobs(jobs);
+			}
+		}
+
+		private boolean tryAdmit() {
+			admitted = context.resources().tryAcquire(
+				cpuSlots, memBytes, ioSlots
+			);
+			return admitted;
+		}
+
+		/*
+		 * Resources are given back as soon as the action is applied,
+		 * before its successors are scheduled, so that they can be
+		 * admitted straight away.
+		 */
+		private void release() {
+			if (!admitted)
+				return;
+
+			admitted = false;
+			context.resources().release(
+				cpuSlots, memBytes, ioSlots
+			);
+			admitReady();
+		}
+
+		private boolean upToDate() {
+			var state = context.buildState();
+			if (state == null)
+				return false;
+
+			lastState = state.lookup(v.op);
+			if (lastState == null || !lastState.matches(
+				requisites, products
+			))
+				return false;
+
+			skipped = true;
+			prodsUpdated = lastState.productsUpdated();
+			return true;
+		}
+
+		private boolean restoreCached() {
+			var cache = context.actionCache();
+			if (cache == null)
+				return false;
+
+			cacheKey = cache.key(v.op, requisites);
+			if (cacheKey == null || !cache.restore(
+				cacheKey, products
+			))
+				return false;
+
+			prodsUpdated = BuildState.toNanos(Instant.now());
+			return true;
+		}
+
+		private void storeCached() {
+			if (cacheKey != null && !aborted)
+				context.actionCache().store(cacheKey, products);
+		}
+
+		/*
+		 * Early cutoff: when a re-applied action produced exactly the
+		 * same content as before, products retain the recorded update
+		 * instant and dependents need not be re-applied.
+		 */
+		private void cutOff() {
+			if (lastState == null || aborted)
+				return;
+
+			if (lastState.sameProducts(products))
+				prodsUpdated = lastState.productsUpdated();
+		}
+
+		private void recordState() {
+			var state = context.buildState();
+			if (state == null)
+				return;
+
+			if (aborted)
+				state.forget(v.op);
+			else
+				state.record(
+					v.op, requisites, products, prodsUpdated
+				);
+		}
+
+		private boolean markReady(long nanos) {
+			updateRequisites(nanos);
+			return (int)PREV_COMPLETED.getAndAdd(this, 1) + 1
+				== prevCount;
+		}
+
+		private void updateRequisites(long nanos) {
+			long cur;
+
+			do {
+				cur = reqsUpdated;
+				if (nanos <= cur)
+					return;
+			} while (!REQS_UPDATED.weakCompareAndSet(
+				this, cur, nanos
+			));
+		}
+
+		/*
+		 * Dispatches successors made ready, except for the one with
+		 * the longest remaining critical path, which is returned to be
+		 * run by the current thread. Only successors of the same kind
+		 * (CPU or I/O bound) as the current action can be continued
+		 * with, so as to keep CPU bound actions off the I/O threads,
+		 * and only if resources can be obtained for it right away.
+		 */
+		private Item scheduleNext() {
+			var end = graph.outEnd(index);
+			Item cont = null;
+
+			for (int e = graph.outBegin(index); e < end; e++) {
+				var next = items[graph.target[e]];
+				var m = graph.prod[e].get(products);
+				graph.req[e].set(next.requisites, m);
+
+				if (!next.markReady(prodsUpdated) || aborted)
+					continue;
+
+				if (timed())
+					next.readyAt = System.nanoTime();
+
+				if (next.io != io)
+					dispatch(next);
+				else if (cont == null)
+					cont = next;
+				else if (next.critPath > cont.critPath) {
+					dispatch(cont);
+					cont = next;
+				} else
+					dispatch(next);
+			}
+
+			if (cont != null && !cont.tryAdmit()) {
+				dispatch(cont);
+				cont = null;
+			} else if (cont != null)
+				cont.dispatched();
+
+			return cont;
 		}
 
 		@Override
@@ -105,39 +373,138 @@ public class ActionTracker {
 
 		@Override
 		public Instant requisitesUpdated() {
-			return reqsUpdated.get();
+			return BuildState.fromNanos(reqsUpdated);
 		}
 
 		@Override
 		public void productsUpdated(Instant inst) {
-			prodsUpdated = inst;
+			prodsUpdated = BuildState.toNanos(inst);
 		}
 
-		void linkNext(
-			Item it, ProdPack.Getter prod, ReqPack.Setter req
-		) {
-			next.add(new ItemLink(it, prod, req));
+		@Override
+		public void memoryUsed(long bytes) {
+			context.costs().recordMemory(v.op, bytes);
+		}
+
+		/*
+		 * Takes a requisite from an action completed by an earlier
+		 * tracker, which is not going to be re-applied.
+		 */
+		void feed(Item prev, int edge) {
+			graph.req[edge].set(
+				requisites, graph.prod[edge].get(prev.products)
+			);
+			updateRequisites(prev.prodsUpdated);
 		}
 
+		private final int index;
 		private final OpGraph.Vertex v;
-		private final AtomicInteger prevCompleted = new AtomicInteger();
-		private final AtomicReference<
-			Instant
-		> reqsUpdated = new AtomicReference<>(Instant.MIN);
 		private final int prevCount;
+		private final long critPath;
+		private final boolean io;
+		private final int cpuSlots;
+		private final int ioSlots;
+		private final long memBytes;
+		private boolean admitted;
 
 		private final ReqPack.Storage requisites;
 		private final ProdPack.Storage products;
 
-		final ArrayList<ItemLink> next;
+		private BuildState.Record lastState;
+		private String cacheKey;
 		private volatile boolean skipped;
-		private volatile Instant prodsUpdated;
+
+		/*
+		 * Update times are kept in epoch nanoseconds, with MISSING
+		 * standing for "never"; the first two fields are updated
+		 * through var handles.
+		 */
+		private volatile int prevCompleted;
+		private volatile long reqsUpdated = BuildState.MISSING;
+		private volatile long prodsUpdated;
+
+		/*
+		 * Instants of lifecycle stages, only taken when there is a
+		 * probe or a flight recording to report them to.
+		 */
+		private long readyAt;
+		private long dispatchedAt;
+		private long startedAt;
+	}
+
+	/*
+	 * Ready items are not handed to the executor directly. Instead, they
+	 * are queued in the order of the longest remaining critical path and
+	 * admitted from the head of the queue only while the context has
+	 * enough resource tokens to spare. As CPU tokens match the worker
+	 * pool size by default, the choice of the item to run next is
+	 * effectively made when a worker is about to become available.
+	 *
+	 * I/O bound items in virtual thread mode are started on their own
+	 * threads, there being no shortage of threads to run them.
+	 */
+	private void dispatch(Item it) {
+		synchronized (ready) {
+			ready.add(it);
+		}
+		admitReady();
 	}
 
+	private void admitReady() {
+		while (true) {
+			Item it;
+
+			synchronized (ready) {
+				it = ready.peek();
+				if (it == null || !it.tryAdmit())
+					return;
+
+				ready.poll();
+			}
+
+			it.dispatched();
+
+			if (it.io)
+				context.executeIo(it);
+			else
+				context.execute(it);
+		}
+	}
+
+	private boolean timed() {
+		return probe != null || FlightEvents.actionEnabled();
+	}
+
+	private static final VarHandle PREV_COMPLETED;
+	private static final VarHandle REQS_UPDATED;
+
+	static {
+		try {
+			var lookup = MethodHandles.lookup();
+			PREV_COMPLETED = lookup.findVarHandle(
+				Item.class, "prevCompleted", int.class
+			);
+			REQS_UPDATED = lookup.findVarHandle(
+				Item.class, "reqsUpdated", long.class
+			);
+		} catch (ReflectiveOperationException ex) {
+			throw new ExceptionInInitializerError(ex);
+		}
+	}
+
+	private static final Comparator<Item> CRIT_PATH_ORDER
+	= (l, r) -> Long.compare(r.critPath, l.critPath);
+
 	final ArrayList<Item> roots = new ArrayList<>();
+	final Item[] items;
+	final OpGraph.Frozen graph;
+	private final ArrayList<Item> members;
+	private final PriorityQueue<Item> ready
+	= new PriorityQueue<>(CRIT_PATH_ORDER);
 	private final Context context;
 	private final int actionCount;
-	private final AtomicInteger actionsStarted = new AtomicInteger();
-	private final AtomicInteger actionsCompleted = new AtomicInteger();
+	private final ActionProbe probe;
+	private final LongAdder actionsStarted = new LongAdder();
+	private final LongAdder actionsCompleted = new LongAdder();
 	private volatile boolean aborted;
 }
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import temulg.yzr.basis.HashCode64;
+
+/**
+ * BuildState persists, for every operator with a {@link
+ * Operator#signature() signature}, the state of requisite and product
+ * marks as seen after the last successful application of the operator.
+ * Actions whose marks still match the recorded state need not be applied
+ * again.
+ */
+public class BuildState implements AutoCloseable {
+	public static BuildState open(Path file) {
+		return new BuildState(
+			new MVStore.Builder().fileName(
+				file.toString()
+			).compress().open()
+		);
+	}
+
+	private BuildState(MVStore store_) {
+		store = store_;
+		actions = store.openMap("actions");
+		keys = store.openMap("keys");
+		costs = store.openMap("costs");
+		memory = store.openMap("memory");
+		summary = store.openMap("summary");
+
+		/* Marks used to be recorded apart from the actions. */
+		if (store.hasMap("marks"))
+			store.removeMap(store.openMap("marks"));
+
+		/*
+		 * The summary is written along with every record change, but
+		 * the store may still have been saved in between the two.
+		 */
+		var w = summary.get(SIGNATURES);
+		if (w != null && w[0] == actions.sizeAsLong())
+			signatures.set(w);
+		else {
+			actions.keySet().forEach(signatures::add);
+			summary.put(SIGNATURES, signatures.get());
+		}
+	}
+
+	public Record lookup(Operator op) {
+		var sig = op.signature();
+		if (sig == null)
+			return null;
+
+		var w = actions.get(sig);
+		return w != null ? new Record(w) : null;
+	}
+
+	/**
+	 * Tells whether state of the operator is recorded, without
+	 * retrieving it.
+	 */
+	public boolean recorded(Operator op) {
+		var sig = op.signature();
+		return sig != null && actions.containsKey(sig);
+	}
+
+	/**
+	 * Tells whether states of all operators of the graph, and of no
+	 * other operators, are recorded. This is decided by comparing
+	 * digests of signature sets, without looking up any records.
+	 */
+	public boolean recordsExactly(OpGraph graph) {
+		var sum = new SignatureSum();
+		graph.forEachOperator(op -> sum.add(op.signature()));
+		return sum.equals(signatures);
+	}
+
+	public void record(
+		Operator op, ReqPack.Storage requisites,
+		ProdPack.Storage products, long prodsUpdated
+	) {
+		var sig = op.signature();
+		if (sig == null)
+			return;
+
+		var reqs = new StampList();
+		requisites.forEach(reqs::add);
+		var prods = new StampList();
+		products.forEach(prods::add);
+
+		var w = new long[2 + reqs.size + prods.size];
+		w[0] = prodsUpdated;
+		w[1] = reqs.size;
+		System.arraycopy(reqs.stamps, 0, w, 2, reqs.size);
+		System.arraycopy(
+			prods.stamps, 0, w, 2 + reqs.size, prods.size
+		);
+
+		var k = new String[(reqs.size + prods.size) / 2];
+		System.arraycopy(reqs.keys, 0, k, 0, reqs.size / 2);
+		System.arraycopy(
+			prods.keys, 0, k, reqs.size / 2, prods.size / 2
+		);
+
+		keys.put(sig, k);
+		if (actions.put(sig, w) == null)
+			updateSummary(sig, true);
+	}
+
+	public interface MarkVisitor {
+		/**
+		 * Receives key of a recorded mark (see {@link Mark#key}) and
+		 * its recorded state: modification time as per {@link
+		 * #markTime} and digest ({@link #NO_DIGEST} if none).
+		 */
+		void accept(String key, long time, long digest);
+	}
+
+	/**
+	 * Visits marks recorded for the operators of the graph. Returns false
+	 * when the state of the graph can not be fully told from the marks,
+	 * that is, when some operator is not recorded, or when some of the
+	 * recorded marks, requisites or products, have no key (or were
+	 * missing altogether); the visitor may have seen some of the marks
+	 * by then.
+	 *
+	 * Records of operators no longer in the graph are not visited. A mark
+	 * used by several operators is visited once per operator.
+	 */
+	public boolean forEachMark(OpGraph graph, MarkVisitor v) {
+		if (recordsExactly(graph)) {
+			var c = actions.cursor(null);
+
+			while (c.hasNext()) {
+				var sig = c.next();
+				if (!visit(c.getValue(), keys.get(sig), v))
+					return false;
+			}
+
+			return true;
+		}
+
+		var good = new boolean[] {true};
+		graph.forEachOperator(op -> {
+			if (!good[0])
+				return;
+
+			var sig = op.signature();
+			good[0] = sig != null && visit(
+				actions.get(sig), keys.get(sig), v
+			);
+		});
+		return good[0];
+	}
+
+	private static boolean visit(long[] w, String[] k, MarkVisitor v) {
+		if (w == null || k == null || k.length * 2 != w.length - 2)
+			return false;
+
+		for (int pos = 0; pos < k.length; pos++) {
+			if (k[pos] == null)
+				return false;
+
+			v.accept(k[pos], w[2 + pos * 2], w[3 + pos * 2]);
+		}
+
+		return true;
+	}
+
+	public void forget(Operator op) {
+		var sig = op.signature();
+		if (sig == null)
+			return;
+
+		keys.remove(sig);
+		if (actions.remove(sig) != null)
+			updateSummary(sig, false);
+	}
+
+	/*
+	 * The store saves changes on its own from time to time, and on
+	 * close, so the summary is kept in step with every record change
+	 * rather than written on commit only.
+	 */
+	private void updateSummary(String sig, boolean added) {
+		synchronized (signatures) {
+			if (added)
+				signatures.add(sig);
+			else
+				signatures.remove(sig);
+
+			summary.put(SIGNATURES, signatures.get());
+		}
+	}
+
+	void loadCosts(ActionCosts ac) {
+		costs.forEach(ac::restore);
+		memory.forEach(ac::restoreMemory);
+	}
+
+	void saveCosts(ActionCosts ac) {
+		ac.forEachPersistent(costs::put);
+		ac.forEachPersistentMemory(memory::put);
+	}
+
+	public void commit() {
+		store.commit();
+	}
+
+	@Override
+	public void close() {
+		store.close();
+	}
+
+	/**
+	 * Recorded state of an action.
+	 *
+	 * Marks are recorded positionally, in the order they are visited by
+	 * the respective storage, as pairs of modification time (in epoch
+	 * nanoseconds) and content digest.
+	 */
+	public static class Record {
+		private Record(long[] w_) {
+			w = w_;
+		}
+
+		/**
+		 * Returns time of the last product update in epoch
+		 * nanoseconds.
+		 */
+		public long productsUpdated() {
+			return w[0];
+		}
+
+		public boolean matches(
+			ReqPack.Storage requisites, ProdPack.Storage products
+		) {
+			var m = new Matcher(2, 2 + (int)w[1]);
+			requisites.forEach(m::accept);
+			if (!m.complete())
+				return false;
+
+			m = new Matcher(m.end, w.length);
+			products.forEach(m::accept);
+			return m.complete();
+		}
+
+		/**
+		 * Checks whether the products are identical by content to the
+		 * recorded ones. Products without digests are never considered
+		 * identical.
+		 */
+		public boolean sameProducts(ProdPack.Storage products) {
+			var m = new Matcher(2 + (int)w[1], w.length);
+			m.digestOnly = true;
+			products.forEach(m::accept);
+			return m.complete();
+		}
+
+		private class Matcher {
+			Matcher(int pos_, int end_) {
+				pos = pos_;
+				end = end_;
+			}
+
+			void accept(Mark m) {
+				if (!good || pos == end || m == null) {
+					good = false;
+					return;
+				}
+
+				long time = markTime(m);
+				var digest = m.digest();
+
+				if (time == MISSING)
+					good = false;
+				else if (digest.isPresent() && (
+					w[pos + 1] != NO_DIGEST
+				))
+					good = digest.getAsLong() == w[pos + 1];
+				else
+					good = !digestOnly && (time == w[pos]);
+
+				pos += 2;
+			}
+
+			boolean complete() {
+				return good && pos == end;
+			}
+
+			private int pos;
+			private final int end;
+			private boolean good = true;
+			private boolean digestOnly;
+		}
+
+		private final long[] w;
+	}
+
+	/*
+	 * Keys of marks are recorded along with the stamps (one key per
+	 * stamp pair, null for marks without one), so that marks may be
+	 * checked without knowing the operators using them.
+	 */
+	private static class StampList {
+		void add(Mark m) {
+			if ((size + 2) > stamps.length) {
+				stamps = Arrays.copyOf(
+					stamps, stamps.length << 1
+				);
+				keys = Arrays.copyOf(keys, keys.length << 1);
+			}
+
+			keys[size / 2] = m != null ? m.key() : null;
+			stamps[size++] = m != null ? markTime(m) : MISSING;
+			stamps[size++] = m != null
+				? m.digest().orElse(NO_DIGEST) : NO_DIGEST;
+		}
+
+		long[] stamps = new long[8];
+		String[] keys = new String[4];
+		int size;
+	}
+
+	/*
+	 * Set of recorded signatures is summarized by the count and the sum
+	 * of hashes of its members, kept up to date as records come and go.
+	 * Operators without a signature make the set of a graph invalid, as
+	 * they are never recorded.
+	 */
+	private static class SignatureSum {
+		synchronized void add(String sig) {
+			if (sig == null)
+				valid = false;
+			else {
+				count++;
+				hash += hash(sig);
+			}
+		}
+
+		synchronized void remove(String sig) {
+			count--;
+			hash -= hash(sig);
+		}
+
+		synchronized long[] get() {
+			return new long[] {count, hash};
+		}
+
+		synchronized void set(long[] w) {
+			count = w[0];
+			hash = w[1];
+		}
+
+		synchronized boolean equals(SignatureSum other) {
+			var w = other.get();
+			return valid && count == w[0] && hash == w[1];
+		}
+
+		/* 64 bit FNV-1a over chars, finalized for better mixing. */
+		private static long hash(String s) {
+			long h = 0xcbf29ce484222325L;
+
+			for (int pos = 0; pos < s.length(); pos++)
+				h = (h ^ s.charAt(pos)) * 0x100000001b3L;
+
+			return HashCode64.of(h);
+		}
+
+		private long count;
+		private long hash;
+		private boolean valid = true;
+	}
+
+	/**
+	 * Returns modification time of the mark in epoch nanoseconds, the
+	 * way it is recorded.
+	 */
+	public static long markTime(Mark m) {
+		return m.lastModified().map(
+			BuildState::toNanos
+		).orElse(MISSING);
+	}
+
+	/**
+	 * Instants are recorded as saturated epoch nanoseconds, with
+	 * Instant.MIN (used by the action tracker as "never") mapping onto
+	 * {@link #MISSING}.
+	 */
+	public static long toNanos(Instant inst) {
+		if (inst.getEpochSecond() >= MAX_SECONDS)
+			return Long.MAX_VALUE;
+		else if (inst.getEpochSecond() <= -MAX_SECONDS)
+			return MISSING;
+
+		return inst.getEpochSecond() * 1000_000_000L + inst.getNano();
+	}
+
+	static Instant fromNanos(long nanos) {
+		return nanos != MISSING
+			? Instant.ofEpochSecond(0, nanos) : Instant.MIN;
+	}
+
+	private static final String SIGNATURES = "signatures";
+
+	public static final long MISSING = Long.MIN_VALUE;
+	public static final long NO_DIGEST = 0;
+	private static final long MAX_SECONDS
+	= Long.MAX_VALUE / 1000_000_000L;
+
+	private final MVStore store;
+	private final MVMap<String, long[]> actions;
+	private final MVMap<String, String[]> keys;
+	private final MVMap<String, Long> costs;
+	private final MVMap<String, Long> memory;
+	private final MVMap<String, long[]> summary;
+	private final SignatureSum signatures = new SignatureSum();
+}
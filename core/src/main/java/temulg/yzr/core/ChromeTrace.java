@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChromeTrace writes a timeline of actions in the trace event format, as
+ * understood by chrome://tracing and Perfetto UI.
+ *
+ * Every action becomes a slice on the thread it ran on, while the time it
+ * spent waiting between becoming ready and starting is shown as an async
+ * slice of its own. Events are written out as actions complete, so the
+ * trace is never kept in memory; a trace left unterminated by a crashed
+ * build is still accepted by the viewers.
+ */
+public class ChromeTrace implements ActionProbe, AutoCloseable {
+	public ChromeTrace(Path path) throws IOException {
+		out = Files.newBufferedWriter(path);
+		out.write("[\n");
+	}
+
+	@Override
+	public void actionCompleted(
+		Operator op, long readyNanos, long dispatchedNanos,
+		long startedNanos, long finishedNanos, Thread thread,
+		boolean skipped
+	) {
+		var name = escape(op.getClass().getName());
+		var tid = thread.getId();
+		var id = waitId.incrementAndGet();
+		var sb = new StringBuilder(512);
+
+		event(sb, "b", "wait", name, readyNanos, tid);
+		sb.append(",\"id\":").append(id).append("},\n");
+		event(sb, "e", "wait", name, startedNanos, tid);
+		sb.append(",\"id\":").append(id).append("},\n");
+		event(
+			sb, "X", skipped ? "skipped" : "action", name,
+			startedNanos, tid
+		);
+		sb.append(",\"dur\":");
+		micros(sb, finishedNanos - startedNanos);
+		sb.append(",\"args\":{\"ready\":");
+		micros(sb, readyNanos - origin);
+		sb.append(",\"dispatched\":");
+		micros(sb, dispatchedNanos - origin);
+		sb.append(",\"skipped\":").append(skipped).append("}},\n");
+
+		synchronized (this) {
+			try {
+				if (threads.add(tid))
+					threadName(tid, thread.getName());
+
+				out.append(sb);
+			} catch (IOException ex) {
+				System.out.println(ex);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		/*
+		 * Trailing comma is not allowed by JSON, so the array is
+		 * terminated by a dummy metadata event.
+		 */
+		out.write("{\"ph\":\"M\",\"name\":\"process_name\",\"pid\":1");
+		out.write(",\"args\":{\"name\":\"yzr\"}}\n]\n");
+		out.close();
+	}
+
+	private void threadName(long tid, String name) throws IOException {
+		out.write("{\"ph\":\"M\",\"name\":\"thread_name\"");
+		out.write(",\"pid\":1,\"tid\":" + tid);
+		out.write(",\"args\":{\"name\":\"" + escape(name) + "\"}},\n");
+	}
+
+	private void event(
+		StringBuilder sb, String ph, String cat, String name,
+		long nanos, long tid
+	) {
+		sb.append("{\"ph\":\"").append(ph);
+		sb.append("\",\"cat\":\"").append(cat);
+		sb.append("\",\"name\":\"").append(name);
+		sb.append("\",\"pid\":1,\"tid\":").append(tid);
+		sb.append(",\"ts\":");
+		micros(sb, nanos - origin);
+	}
+
+	/* Trace event timestamps are in (fractional) microseconds. */
+	private static void micros(StringBuilder sb, long nanos) {
+		if (nanos < 0) {
+			sb.append('-');
+			nanos = -nanos;
+		}
+
+		var frac = nanos % 1000;
+		sb.append(nanos / 1000).append('.');
+		if (frac < 100)
+			sb.append(frac < 10 ? "00" : "0");
+
+		sb.append(frac);
+	}
+
+	private static String escape(String s) {
+		var sb = new StringBuilder(s.length());
+
+		for (int pos = 0; pos < s.length(); pos++) {
+			var c = s.charAt(pos);
+
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	private final Writer out;
+	private final long origin = System.nanoTime();
+	private final HashSet<Long> threads = new HashSet<>();
+	private final AtomicLong waitId = new AtomicLong();
+}
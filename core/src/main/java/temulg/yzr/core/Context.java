@@ -6,19 +6,584 @@
 
 package temulg.yzr.core;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Context implements Executor {
+	public Context() {
+		this(builder());
+	}
+
 	@Override
 	public void execute(Runnable command) {
-		exec.execute(command);
+		exec.execute(tracking() ? tracked(command) : command);
+	}
+
+	/**
+	 * Executes an I/O bound task. In virtual thread mode every such task
+	 * gets a virtual thread of its own, otherwise it is handled same as
+	 * any other task.
+	 */
+	public void executeIo(Runnable command) {
+		if (io != null)
+			io.execute(tracked(command));
+		else
+			execute(command);
+	}
+
+	public boolean hasIoExecutor() {
+		return io != null;
+	}
+
+	/**
+	 * Stops threads owned by the context: the load governor, the I/O
+	 * executor and the worker pool. Contexts derived for daemon requests
+	 * share all of these with the daemon's context and leave them be.
+	 */
+	public void shutdown() {
+		if (!owner)
+			return;
+
+		if (governor != null)
+			governor.stop();
+
+		if (io != null)
+			io.shutdown();
+
+		exec.shutdown();
 	}
 
 	public void awaitTermination() {
-		exec.awaitQuiescence(5, TimeUnit.MINUTES);
+		if (tracking())
+			awaitOutstanding(TimeUnit.MINUTES.toMillis(5));
+		else
+			exec.awaitQuiescence(5, TimeUnit.MINUTES);
+
+		if (state != null) {
+			state.saveCosts(costs);
+			state.commit();
+		}
+	}
+
+	/**
+	 * Runs a blocking call on behalf of an action. When invoked from a
+	 * pool worker, the pool is allowed to bring up a spare worker for the
+	 * duration of the call, so that CPU bound actions are not held up by
+	 * those merely waiting on something.
+	 */
+	public <T> T block(Callable<T> call) throws Exception {
+		var b = new CallBlocker<>(call);
+		ForkJoinPool.managedBlock(b);
+		return b.result();
+	}
+
+	/**
+	 * Starts a process and waits for it to exit, returning its exit code.
+	 *
+	 * Processes are admitted up to the configured process limit,
+	 * independently of the worker pool size; both waiting for admission
+	 * and waiting for exit are compensated as per {@link #block}.
+	 *
+	 * Peak resident set size of the process, as last sampled before it
+	 * exits, is reported to the action.
+	 *
+	 * If the context has a jobserver, the process is pointed at it via
+	 * MAKEFLAGS, so that any make (or another yzr) started by the action
+	 * shares the same job slots. The process inherits the slots held by
+	 * the action.
+	 */
+	public int runProcess(
+		Operator.Action act, ProcessBuilder pb
+	) throws IOException, InterruptedException {
+		var path = pb.command().get(0);
+		if (jobs != null) {
+			pb.environment().compute(
+				"MAKEFLAGS", (k, v) -> jobs.makeFlags(v)
+			);
+			pb.command(jobs.wrap(pb.command()));
+		}
+
+		/*
+		 * Nothing which may throw is to run between taking the slot and
+		 * entering the block releasing it.
+		 */
+		ForkJoinPool.managedBlock(new ProcessSlot());
+		try {
+			var exit = new FlightEvents.ProcessExit();
+			exit.begin();
+			var wait = new ProcessWait(pb.start());
+			spawned(act, path, wait.p.pid());
+			ForkJoinPool.managedBlock(wait);
+
+			if (wait.peakRss > 0)
+				act.memoryUsed(wait.peakRss);
+
+			var rc = wait.p.exitValue();
+			if (exit.shouldCommit()) {
+				exit.operator = operatorClass(act);
+				exit.path = path;
+				exit.pid = wait.p.pid();
+				exit.exitCode = rc;
+				exit.peakRss = wait.peakRss;
+				exit.commit();
+			}
+			return rc;
+		} finally {
+			processSlots.release();
+		}
+	}
+
+	private static void spawned(
+		Operator.Action act, String path, long pid
+	) {
+		var ev = new FlightEvents.ProcessSpawn();
+		if (ev.shouldCommit()) {
+			ev.operator = operatorClass(act);
+			ev.path = path;
+			ev.pid = pid;
+			ev.commit();
+		}
+	}
+
+	private static Class<?> operatorClass(Operator.Action act) {
+		return act instanceof ActionTracker.Item
+			? ((ActionTracker.Item)act).operator().getClass()
+			: null;
+	}
+
+	/*
+	 * Pool quiescence alone can not be relied upon in virtual thread
+	 * mode, as the pool may well be idle while I/O tasks are in flight,
+	 * about to submit more work. Neither can it be when the pool is
+	 * shared by concurrent daemon requests, as it then only becomes
+	 * quiescent once all of them are done. Tasks are counted instead,
+	 * separately for every derived context.
+	 */
+	private boolean tracking() {
+		return io != null || !owner;
+	}
+
+	private Runnable tracked(Runnable command) {
+		outstanding.incrementAndGet();
+		return () -> {
+			try {
+				command.run();
+			} finally {
+				if (outstanding.decrementAndGet() == 0) {
+					synchronized (outstanding) {
+						outstanding.notifyAll();
+					}
+				}
+			}
+		};
+	}
+
+	private void awaitOutstanding(long millis) {
+		var deadline = System.currentTimeMillis() + millis;
+
+		synchronized (outstanding) {
+			while (outstanding.get() > 0) {
+				var now = System.currentTimeMillis();
+				var left = deadline - now;
+				if (left <= 0)
+					return;
+
+				try {
+					outstanding.wait(left);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Virtual threads are only available with recent Java versions; in
+	 * their absence a pool of platform threads is used, bounded by the
+	 * number of I/O slots and by IO_THREADS_PER_CPU (I/O slots are not
+	 * limited by default, and file system actions take none), with
+	 * excess tasks waiting in the queue.
+	 */
+	private static ExecutorService newIoExecutor(int ioTokens) {
+		try {
+			return (ExecutorService)Executors.class.getMethod(
+				"newVirtualThreadPerTaskExecutor"
+			).invoke(null);
+		} catch (ReflectiveOperationException ex) {
+			var threads = Math.max(1, Math.min(
+				ioTokens, IO_THREADS_PER_CPU
+				* Runtime.getRuntime().availableProcessors()
+			));
+			var pool = new ThreadPoolExecutor(
+				threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+					var t = new Thread(r, "yzr-io");
+					t.setDaemon(true);
+					return t;
+				}
+			);
+			pool.allowCoreThreadTimeOut(true);
+			return pool;
+		}
+	}
+
+	ResourcePool resources() {
+		return resources;
+	}
+
+	/*
+	 * Takes job slots from the jobserver, if any, for an action about to
+	 * be applied.
+	 */
+	Jobserver.Grant acquireJobs(int count) throws Exception {
+		return jobs != null ? block(() -> jobs.acquire(count)) : null;
+	}
+
+	void releaseJobs(Jobserver.Grant g) {
+		if (g != null)
+			jobs.release(g);
+	}
+
+	public ActionCosts costs() {
+		return costs;
+	}
+
+	public BuildState buildState() {
+		return state;
+	}
+
+	public ActionCache actionCache() {
+		return cache;
+	}
+
+	public Metrics metrics() {
+		return metrics;
+	}
+
+	ActionProbe probe() {
+		return probe;
 	}
 
-	private final ForkJoinPool exec = new ForkJoinPool();
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		public Builder buildState(BuildState state_) {
+			state = state_;
+			return this;
+		}
+
+		public Builder actionCache(ActionCache cache_) {
+			cache = cache_;
+			return this;
+		}
+
+		/**
+		 * Sets the number of CPU slots available to actions, number
+		 * of available processors by default.
+		 */
+		public Builder cpuTokens(int cpuTokens_) {
+			cpuTokens = cpuTokens_;
+			return this;
+		}
+
+		/**
+		 * Sets the number of bytes of memory available to actions,
+		 * size of physical memory by default.
+		 */
+		public Builder memoryTokens(long memoryTokens_) {
+			memoryTokens = memoryTokens_;
+			return this;
+		}
+
+		/**
+		 * Sets the number of I/O slots available to actions, not
+		 * limited by default.
+		 */
+		public Builder ioTokens(int ioTokens_) {
+			ioTokens = ioTokens_;
+			return this;
+		}
+
+		/**
+		 * Sets the jobserver to take job slots from before applying
+		 * every action (one per CPU slot needed by the action), and
+		 * to pass on to child processes.
+		 */
+		public Builder jobserver(Jobserver jobs_) {
+			jobs = jobs_;
+			return this;
+		}
+
+		/**
+		 * Enables running of I/O bound actions on virtual threads,
+		 * leaving the worker pool to CPU bound actions. Java versions
+		 * without virtual threads get a bounded pool of platform
+		 * threads instead.
+		 */
+		public Builder virtualThreads(boolean virtualThreads_) {
+			virtualThreads = virtualThreads_;
+			return this;
+		}
+
+		/**
+		 * Sets the maximal number of concurrently running processes,
+		 * number of available processors by default.
+		 */
+		public Builder processLimit(int processLimit_) {
+			if (processLimit_ < 1)
+				throw new IllegalArgumentException(
+					"Process limit must be positive"
+				);
+
+			processLimit = processLimit_;
+			return this;
+		}
+
+		/**
+		 * Enables periodic adjustment of CPU and memory slots to
+		 * cgroup limits, load average and pressure stall information
+		 * of the host; configured amounts then serve as upper bounds.
+		 */
+		public Builder adaptive(boolean adaptive_) {
+			adaptive = adaptive_;
+			return this;
+		}
+
+		public Builder metrics(Metrics metrics_) {
+			metrics = metrics_;
+			return this;
+		}
+
+		/**
+		 * Sets the probe to be notified of every completed action,
+		 * such as {@link ChromeTrace}.
+		 */
+		public Builder probe(ActionProbe probe_) {
+			probe = probe_;
+			return this;
+		}
+
+		public Context build() {
+			return new Context(this);
+		}
+
+		private BuildState state;
+		private ActionCache cache;
+		private int processLimit
+		= Runtime.getRuntime().availableProcessors();
+		private boolean virtualThreads;
+		private int cpuTokens
+		= Runtime.getRuntime().availableProcessors();
+		private long memoryTokens = totalMemory();
+		private int ioTokens = Integer.MAX_VALUE;
+		private Jobserver jobs;
+		private boolean adaptive;
+		private Metrics metrics = Metrics.NONE;
+		private ActionProbe probe;
+	}
+
+	private Context(Builder b) {
+		exec = new ForkJoinPool();
+		costs = new ActionCosts();
+		outstanding = new AtomicLong();
+		state = b.state;
+		cache = b.cache;
+		processSlots = new Semaphore(b.processLimit);
+		io = b.virtualThreads ? newIoExecutor(b.ioTokens) : null;
+		jobs = b.jobs;
+		metrics = b.metrics;
+		probe = b.probe;
+		resources = new ResourcePool(
+			b.cpuTokens, b.memoryTokens, b.ioTokens
+		);
+
+		owner = true;
+		if (b.adaptive) {
+			governor = new LoadGovernor(
+				resources, b.cpuTokens, b.memoryTokens, metrics
+			);
+			governor.start(GOVERNOR_PERIOD_MILLIS);
+		} else
+			governor = null;
+
+		if (state != null)
+			state.loadCosts(costs);
+	}
+
+	private Context(Context other, Jobserver jobs_) {
+		exec = other.exec;
+		costs = other.costs;
+		outstanding = new AtomicLong();
+		state = other.state;
+		cache = other.cache;
+		processSlots = other.processSlots;
+		io = other.io;
+		jobs = jobs_;
+		metrics = other.metrics;
+		probe = other.probe;
+		resources = other.resources;
+		owner = false;
+		governor = null;
+	}
+
+	/*
+	 * Returns a context sharing everything with this one, save for the
+	 * count of outstanding tasks and, if given, the jobserver; used by
+	 * the daemon to wait for every request on its own and to run it
+	 * under the jobserver of the client's parent make.
+	 */
+	Context forRequest(Jobserver jobs_) {
+		return new Context(this, jobs_ != null ? jobs_ : jobs);
+	}
+
+	private static class CallBlocker<T>
+	implements ForkJoinPool.ManagedBlocker {
+		CallBlocker(Callable<T> call_) {
+			call = call_;
+		}
+
+		@Override
+		public boolean block() {
+			try {
+				value = call.call();
+			} catch (Exception ex_) {
+				ex = ex_;
+			}
+			done = true;
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return done;
+		}
+
+		T result() throws Exception {
+			if (ex != null)
+				throw ex;
+
+			return value;
+		}
+
+		private final Callable<T> call;
+		private T value;
+		private Exception ex;
+		private boolean done;
+	}
+
+	private class ProcessSlot implements ForkJoinPool.ManagedBlocker {
+		@Override
+		public boolean block() throws InterruptedException {
+			if (!acquired) {
+				processSlots.acquire();
+				acquired = true;
+			}
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			if (!acquired)
+				acquired = processSlots.tryAcquire();
+
+			return acquired;
+		}
+
+		private boolean acquired;
+	}
+
+	private static class ProcessWait
+	implements ForkJoinPool.ManagedBlocker {
+		ProcessWait(Process p_) {
+			p = p_;
+			status = Paths.get(
+				"/proc", Long.toString(p.pid()), "status"
+			);
+		}
+
+		@Override
+		public boolean block() throws InterruptedException {
+			do {
+				sample();
+			} while (!p.waitFor(
+				RSS_SAMPLE_MILLIS, TimeUnit.MILLISECONDS
+			));
+
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return !p.isAlive();
+		}
+
+		/*
+		 * VmHWM is the peak resident set size of the process so far;
+		 * it is only available until the process is reaped.
+		 */
+		private void sample() {
+			try (var lines = Files.lines(status)) {
+				lines.filter(
+					l -> l.startsWith("VmHWM:")
+				).forEach(l -> {
+					peakRss = Math.max(peakRss, parseKb(l));
+				});
+			} catch (IOException | RuntimeException ex) {
+				/* Process is gone or /proc is not available. */
+			}
+		}
+
+		/* Lines look like "VmHWM:\t    1748 kB". */
+		private static long parseKb(String line) {
+			var f = line.substring(6).trim().split(" ");
+			return Long.parseLong(f[0]) << 10;
+		}
+
+		final Process p;
+		private final Path status;
+		long peakRss;
+	}
+
+	private static long totalMemory() {
+		var os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean)os)
+				.getTotalMemorySize();
+
+		return Long.MAX_VALUE;
+	}
+
+	private static final long RSS_SAMPLE_MILLIS = 50;
+	private static final long GOVERNOR_PERIOD_MILLIS = 1000;
+	private static final int IO_THREADS_PER_CPU = 8;
+
+	private final ForkJoinPool exec;
+	private final ActionCosts costs;
+	private final BuildState state;
+	private final ActionCache cache;
+	private final Semaphore processSlots;
+	private final ExecutorService io;
+	private final ResourcePool resources;
+	private final Jobserver jobs;
+	private final Metrics metrics;
+	private final ActionProbe probe;
+	private final AtomicLong outstanding;
+	private final boolean owner;
+	private final LoadGovernor governor;
 }
@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Daemon keeps a warm {@link Context}, along with any graphs built on
+ * behalf of earlier requests, and serves build requests forwarded by the
+ * launcher over a Unix domain socket. This saves JVM startup, class
+ * loading and JIT warm up on every build.
+ *
+ * Request (client to daemon), all integers are big endian:
+ * <pre>
+ * int count, then count times: int length, UTF-8 bytes
+ * int count, then count times: int length, UTF-8 bytes
+ * int pid
+ * </pre>
+ * The first string of the first list is the client's working directory,
+ * the rest are the client's command line arguments. The second list is
+ * the client's environment, as "NAME=value" strings, followed by the
+ * client's process id.
+ *
+ * If the client was started by make, the request is run under the
+ * jobserver found in the forwarded MAKEFLAGS; descriptors of the
+ * jobserver pipe are reached through /proc of the client process, which
+ * stays around for the duration of the request.
+ *
+ * Response (daemon to client) is a sequence of frames:
+ * <pre>
+ * byte tag, int length, payload
+ * </pre>
+ * with tag being 'o' (standard output data), 'e' (standard error data) or
+ * 'x' (exit status as int; always the last frame).
+ *
+ * The socket lives in a directory accessible to its owner alone, which
+ * must be the user running the daemon; connections from other users are
+ * dropped on the peer credentials of the socket. Requests with lengths
+ * or counts above sane limits are dropped as well.
+ *
+ * Unix domain socket channels are only available with Java 16 or later;
+ * they are looked up reflectively, same as virtual threads in
+ * {@link Context}, so that the rest of the core is not tied to a recent
+ * Java version.
+ */
+public class Daemon implements AutoCloseable {
+	public interface Handler {
+		int handle(Session s) throws Exception;
+	}
+
+	public class Session {
+		private Session(
+			SocketChannel ch_, String workDir_, String[] args_,
+			Map<String, String> env_, Context context_
+		) {
+			ch = ch_;
+			workDir = workDir_;
+			args = args_;
+			env = env_;
+			context = context_;
+			out = new PrintStream(new FrameStream(TAG_OUT), true);
+			err = new PrintStream(new FrameStream(TAG_ERR), true);
+		}
+
+		/**
+		 * Returns a context derived from the daemon's one for this
+		 * request alone, set up to use the jobserver of the client's
+		 * parent make, if any.
+		 */
+		public Context context() {
+			return context;
+		}
+
+		public String workDir() {
+			return workDir;
+		}
+
+		public String[] args() {
+			return args;
+		}
+
+		public Map<String, String> environment() {
+			return env;
+		}
+
+		public PrintStream out() {
+			return out;
+		}
+
+		public PrintStream err() {
+			return err;
+		}
+
+		/**
+		 * Returns a graph built for an earlier request under the same
+		 * key, or builds a new one. It is up to the caller to make the
+		 * key reflect everything the graph was built from (goal file
+		 * names and their modification times, for example).
+		 */
+		public OpGraph graph(String key, Supplier<OpGraph> maker) {
+			return graphs.computeIfAbsent(key, k -> maker.get());
+		}
+
+		public void forgetGraph(String key) {
+			graphs.remove(key);
+		}
+
+		private void writeFrame(
+			byte tag, byte[] b, int off, int len
+		) throws IOException {
+			var hdr = ByteBuffer.allocate(5);
+			hdr.put(tag).putInt(len).flip();
+
+			synchronized (ch) {
+				while (hdr.hasRemaining())
+					ch.write(hdr);
+
+				var data = ByteBuffer.wrap(b, off, len);
+				while (data.hasRemaining())
+					ch.write(data);
+			}
+		}
+
+		private class FrameStream extends OutputStream {
+			FrameStream(byte tag_) {
+				tag = tag_;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte)b}, 0, 1);
+			}
+
+			@Override
+			public void write(
+				byte[] b, int off, int len
+			) throws IOException {
+				if (len > 0)
+					writeFrame(tag, b, off, len);
+			}
+
+			private final byte tag;
+		}
+
+		private final SocketChannel ch;
+		private final String workDir;
+		private final String[] args;
+		private final Map<String, String> env;
+		private final Context context;
+		private final PrintStream out;
+		private final PrintStream err;
+	}
+
+	public Daemon(Context context_, Path socket_, Handler handler_) {
+		context = context_;
+		socket = socket_;
+		handler = handler_;
+	}
+
+	/**
+	 * Accepts requests until the daemon is closed. Every request is
+	 * served by its own thread, so that a long build does not hold up
+	 * other clients.
+	 */
+	public void serve() throws IOException {
+		user = socket.getFileSystem().getUserPrincipalLookupService()
+			.lookupPrincipalByName(System.getProperty("user.name"));
+		secureDirectory(socket.toAbsolutePath().getParent(), user);
+		Files.deleteIfExists(socket);
+
+		server = openServer(socket);
+
+		try {
+			while (server.isOpen()) {
+				var ch = server.accept();
+				var t = new Thread(
+					() -> serve(ch), "yzr-request"
+				);
+				t.setDaemon(true);
+				t.start();
+			}
+		} catch (IOException ex) {
+			if (server.isOpen())
+				throw ex;
+		} finally {
+			Files.deleteIfExists(socket);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (server != null)
+			server.close();
+	}
+
+	private void serve(SocketChannel ch) {
+		try (ch) {
+			if (!user.equals(peerUser(ch)))
+				return;
+
+			var in = new DataInputStream(
+				Channels.newInputStream(ch)
+			);
+			var count = readCount(in);
+			if (count < 1)
+				return;
+
+			var workDir = readString(in);
+			var args = new String[count - 1];
+			for (int pos = 0; pos < args.length; pos++)
+				args[pos] = readString(in);
+
+			var env = readEnvironment(in);
+			var jobs = Jobserver.fromEnvironment(env, in.readInt());
+			var s = new Session(
+				ch, workDir, args, env,
+				context.forRequest(jobs)
+			);
+			int rv;
+
+			try {
+				rv = handler.handle(s);
+			} catch (Exception ex) {
+				ex.printStackTrace(s.err());
+				rv = -2;
+			} finally {
+				if (jobs != null)
+					jobs.close();
+			}
+
+			s.out().flush();
+			s.err().flush();
+			var status = ByteBuffer.allocate(4).putInt(rv).array();
+			s.writeFrame(TAG_EXIT, status, 0, status.length);
+		} catch (IOException ex) {
+			/* Client went away or sent a malformed request. */
+		}
+	}
+
+	/*
+	 * Creates the socket directory if need be, refusing to use one not
+	 * owned by the user or accessible to anybody else.
+	 */
+	private static void secureDirectory(
+		Path dir, UserPrincipal user
+	) throws IOException {
+		if (!Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+			Files.createDirectories(
+				dir, PosixFilePermissions.asFileAttribute(
+					OWNER_ONLY
+				)
+			);
+		}
+
+		if (!Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS))
+			throw new IOException("Not a directory: " + dir);
+
+		var owner = Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS);
+		if (!user.equals(owner))
+			throw new IOException(
+				"Directory not owned by user: " + dir
+			);
+
+		var perms = Files.getPosixFilePermissions(
+			dir, LinkOption.NOFOLLOW_LINKS
+		);
+		perms.remove(PosixFilePermission.OWNER_READ);
+		perms.remove(PosixFilePermission.OWNER_WRITE);
+		perms.remove(PosixFilePermission.OWNER_EXECUTE);
+		if (!perms.isEmpty())
+			throw new IOException(
+				"Directory accessible to others: " + dir
+			);
+	}
+
+	/*
+	 * Peer credentials are available with the same Java versions as
+	 * Unix domain socket channels; failure to obtain them makes the
+	 * connection unacceptable.
+	 */
+	private static UserPrincipal peerUser(SocketChannel ch) {
+		try {
+			var opt = (SocketOption<?>)Class.forName(
+				"jdk.net.ExtendedSocketOptions"
+			).getField("SO_PEERCRED").get(null);
+			var cred = ch.getOption(opt);
+
+			return (UserPrincipal)cred.getClass().getMethod(
+				"user"
+			).invoke(cred);
+		} catch (
+			ReflectiveOperationException | IOException
+			| RuntimeException ex
+		) {
+			return null;
+		}
+	}
+
+	private static ServerSocketChannel openServer(
+		Path socket
+	) throws IOException {
+		try {
+			var addr = (SocketAddress)Class.forName(
+				"java.net.UnixDomainSocketAddress"
+			).getMethod("of", Path.class).invoke(null, socket);
+			var ch = (ServerSocketChannel)ServerSocketChannel.class
+				.getMethod("open", ProtocolFamily.class).invoke(
+					null,
+					StandardProtocolFamily.valueOf("UNIX")
+				);
+
+			ch.bind(addr);
+			return ch;
+		} catch (InvocationTargetException ex) {
+			if (ex.getCause() instanceof IOException)
+				throw (IOException)ex.getCause();
+
+			throw new IOException(ex.getCause());
+		} catch (
+			ReflectiveOperationException
+			| IllegalArgumentException ex
+		) {
+			throw new IOException(
+				"Unix domain sockets are not supported", ex
+			);
+		}
+	}
+
+	private static Map<String, String> readEnvironment(
+		DataInputStream in
+	) throws IOException {
+		var env = new HashMap<String, String>();
+
+		for (int count = readCount(in); count > 0; count--) {
+			var e = readString(in);
+			var sep = e.indexOf('=');
+			if (sep > 0)
+				env.put(
+					e.substring(0, sep),
+					e.substring(sep + 1)
+				);
+		}
+
+		return Collections.unmodifiableMap(env);
+	}
+
+	private static String readString(
+		DataInputStream in
+	) throws IOException {
+		var len = in.readInt();
+		if (len < 0 || len > MAX_STRING_LENGTH)
+			throw new IOException("Bad string length " + len);
+
+		var b = new byte[len];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static int readCount(
+		DataInputStream in
+	) throws IOException {
+		var count = in.readInt();
+		if (count < 0 || count > MAX_STRING_COUNT)
+			throw new IOException("Bad string count " + count);
+
+		return count;
+	}
+
+	public static final String SOCKET_PROPERTY
+	= "temulg.yzr.daemon.socket";
+
+	private static final byte TAG_OUT = 'o';
+	private static final byte TAG_ERR = 'e';
+	private static final byte TAG_EXIT = 'x';
+	private static final int MAX_STRING_LENGTH = 1 << 20;
+	private static final int MAX_STRING_COUNT = 1 << 16;
+	private static final Set<
+		PosixFilePermission
+	> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+	private final Context context;
+	private final Path socket;
+	private final Handler handler;
+	private final ConcurrentHashMap<
+		String, OpGraph
+	> graphs = new ConcurrentHashMap<>();
+	private volatile ServerSocketChannel server;
+	private volatile UserPrincipal user;
+}
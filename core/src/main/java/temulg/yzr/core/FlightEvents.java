@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events emitted while building. Events cost next to
+ * nothing unless a recording enabling them is in progress, so they are
+ * emitted unconditionally.
+ *
+ * Marks are identified by their string form (file system path in case of
+ * nodes); file stat events are not attributed to an operator, as the
+ * enclosing action event on the same thread already is.
+ */
+public class FlightEvents {
+	private FlightEvents() {
+	}
+
+	@Name("temulg.yzr.ActionDispatch")
+	@Label("Action Dispatch")
+	@Category({"Yzr", "Actions"})
+	@Description("Action handed to a thread to run on")
+	public static final class ActionDispatch extends Event {
+		@Label("Operator")
+		public Class<?> operator;
+
+		@Label("Path")
+		@Description("First product of the action")
+		public String path;
+
+		@Label("Queue Latency")
+		@Description("Time since the action became ready")
+		@Timespan(Timespan.NANOSECONDS)
+		public long queueLatency;
+	}
+
+	@Name("temulg.yzr.Action")
+	@Label("Action")
+	@Category({"Yzr", "Actions"})
+	@Description("Action run to completion")
+	public static final class Action extends Event {
+		@Label("Operator")
+		public Class<?> operator;
+
+		@Label("Path")
+		@Description("First product of the action")
+		public String path;
+
+		@Label("Queue Latency")
+		@Description("Time between becoming ready and starting")
+		@Timespan(Timespan.NANOSECONDS)
+		public long queueLatency;
+
+		@Label("Skipped")
+		public boolean skipped;
+	}
+
+	@Name("temulg.yzr.FileStat")
+	@Label("File Stat")
+	@Category({"Yzr", "File System"})
+	public static final class FileStat extends Event {
+		@Label("Path")
+		public String path;
+
+		@Label("Exists")
+		public boolean exists;
+	}
+
+	@Name("temulg.yzr.ProcessSpawn")
+	@Label("Process Spawn")
+	@Category({"Yzr", "Processes"})
+	public static final class ProcessSpawn extends Event {
+		@Label("Operator")
+		public Class<?> operator;
+
+		@Label("Path")
+		@Description("Executable")
+		public String path;
+
+		@Label("PID")
+		public long pid;
+	}
+
+	@Name("temulg.yzr.ProcessExit")
+	@Label("Process Exit")
+	@Category({"Yzr", "Processes"})
+	@Description("Process run from spawn to exit")
+	public static final class ProcessExit extends Event {
+		@Label("Operator")
+		public Class<?> operator;
+
+		@Label("Path")
+		@Description("Executable")
+		public String path;
+
+		@Label("PID")
+		public long pid;
+
+		@Label("Exit Code")
+		public int exitCode;
+
+		@Label("Peak RSS")
+		@DataAmount(DataAmount.BYTES)
+		public long peakRss;
+	}
+
+	/*
+	 * Action events are emitted for every action, so the hot path asks
+	 * the event type whether a recording wants them before allocating
+	 * any event instance.
+	 */
+	static boolean actionEnabled() {
+		return ACTION.isEnabled();
+	}
+
+	static boolean actionDispatchEnabled() {
+		return ACTION_DISPATCH.isEnabled();
+	}
+
+	private static final EventType ACTION
+	= EventType.getEventType(Action.class);
+	private static final EventType ACTION_DISPATCH
+	= EventType.getEventType(ActionDispatch.class);
+}
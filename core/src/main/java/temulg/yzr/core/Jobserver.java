@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Jobserver shares a bounded number of job slots between cooperating
+ * build tools, following the GNU make jobserver protocol: every slot but
+ * one is represented by a byte in a pipe, which is read to take a slot and
+ * written back to release it; the remaining slot is held implicitly by
+ * every process taking part.
+ *
+ * A jobserver is either made afresh, with its pipe being a named fifo
+ * (the "server" side), or picked up from MAKEFLAGS passed by a parent make
+ * (the "client" side); pipes passed by a parent as file descriptors are
+ * reachable by path via /proc.
+ *
+ * As Java does not let child processes inherit arbitrary descriptors,
+ * children are started through a tiny shell wrapper, which opens the pipe
+ * as descriptor 3 before running the actual command. This way children
+ * can be pointed at the pipe with "--jobserver-auth=3,3", which is
+ * understood by any GNU make since 4.2, unlike the fifo form only
+ * supported since 4.4.
+ */
+public class Jobserver implements AutoCloseable {
+	/**
+	 * Job slots taken by an action.
+	 */
+	public static class Grant {
+		private Grant(boolean implicit_, byte[] tokens_) {
+			implicit = implicit_;
+			tokens = tokens_;
+		}
+
+		private final boolean implicit;
+		private final byte[] tokens;
+	}
+
+	/**
+	 * Makes a new jobserver with the given total number of slots.
+	 */
+	public static Jobserver create(int slots) throws IOException {
+		if (slots < 1)
+			throw new IllegalArgumentException(
+				"Jobserver needs at least one slot"
+			);
+
+		var dir = Files.createTempDirectory("yzr-jobserver");
+		var fifo = dir.resolve("fifo");
+
+		try {
+			var p = new ProcessBuilder(
+				"mkfifo", "-m", "600", fifo.toString()
+			).inheritIO().start();
+			if (p.waitFor() != 0)
+				throw new IOException("mkfifo failed");
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException(ex);
+		}
+
+		var js = new Jobserver(fifo, fifo, slots, dir);
+		var b = new byte[slots - 1];
+		Arrays.fill(b, (byte)'+');
+		js.pipe.write(b);
+		return js;
+	}
+
+	/**
+	 * Picks up jobserver of a parent make from MAKEFLAGS, if any.
+	 * Returns null when there is none or it can not be accessed.
+	 */
+	public static Jobserver fromEnvironment() {
+		return fromEnvironment(
+			System.getenv(), ProcessHandle.current().pid()
+		);
+	}
+
+	/**
+	 * Picks up jobserver of a parent make from MAKEFLAGS of the given
+	 * environment, belonging to the process with the given pid (the
+	 * daemon uses this with the environment forwarded by a client).
+	 */
+	public static Jobserver fromEnvironment(
+		Map<String, String> env, long pid
+	) {
+		var flags = env.get("MAKEFLAGS");
+		if (flags == null)
+			return null;
+
+		String auth = null;
+		int slots = 0;
+
+		for (var w: flags.trim().split("\\s+")) {
+			if (w.startsWith(AUTH_FLAG))
+				auth = w.substring(AUTH_FLAG.length());
+			else if (w.startsWith(OLD_AUTH_FLAG))
+				auth = w.substring(OLD_AUTH_FLAG.length());
+			else if (w.startsWith("-j") && w.length() > 2) {
+				try {
+					slots = Integer.parseInt(
+						w.substring(2)
+					);
+				} catch (NumberFormatException ex) {
+				}
+			}
+		}
+
+		if (auth == null)
+			return null;
+
+		try {
+			if (auth.startsWith("fifo:")) {
+				var fifo = Paths.get(auth.substring(5));
+				return new Jobserver(fifo, fifo, slots, null);
+			}
+
+			/*
+			 * Descriptors are not inherited by processes we start,
+			 * so children are given the path of the descriptor
+			 * held by the process the environment belongs to.
+			 */
+			var fd = Paths.get(
+				"/proc/" + pid + "/fd", auth.split(",")[0]
+			);
+			return new Jobserver(fd, fd, slots, null);
+		} catch (IOException | RuntimeException ex) {
+			System.out.println(
+				"Jobserver not accessible: " + ex.getMessage()
+			);
+			return null;
+		}
+	}
+
+	private Jobserver(
+		Path path, Path exported_, int slots_, Path dir_
+	) throws IOException {
+		pipe = new RandomAccessFile(path.toFile(), "rw");
+		available = new FileInputStream(pipe.getFD());
+		exported = exported_;
+		slots = slots_;
+		dir = dir_;
+	}
+
+	/**
+	 * Takes the given number of job slots, blocking until all of them
+	 * are available.
+	 *
+	 * Slots are taken all or nothing, so that actions waiting for more
+	 * than one slot do not deadlock each other by holding on to some
+	 * while waiting for the rest: only the first token is waited for,
+	 * the rest are only read as long as the pipe has them. If the pipe
+	 * runs short, whatever was taken is given back and another attempt
+	 * is made after a while. Attempts are serialized within the process.
+	 */
+	public Grant acquire(int count) throws IOException {
+		if (count <= 0)
+			return EMPTY_GRANT;
+
+		synchronized (acquireLock) {
+			for (long delay = MIN_RETRY_MILLIS;; delay = Math.min(
+				delay * 2, MAX_RETRY_MILLIS
+			)) {
+				var g = tryAcquire(count);
+				if (g != null)
+					return g;
+
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		}
+	}
+
+	private Grant tryAcquire(int count) throws IOException {
+		var implicit = implicitFree.compareAndSet(true, false);
+		var tokens = new byte[implicit ? count - 1 : count];
+		int pos = 0;
+
+		try {
+			for (; pos < tokens.length; pos++) {
+				if (pos > 0 && available.available() == 0)
+					break;
+
+				var b = pipe.read();
+				if (b < 0)
+					throw new IOException(
+						"Jobserver pipe closed"
+					);
+
+				tokens[pos] = (byte)b;
+			}
+		} catch (IOException ex) {
+			release(partial(implicit, tokens, pos));
+			throw ex;
+		}
+
+		if (pos == tokens.length)
+			return new Grant(implicit, tokens);
+
+		release(partial(implicit, tokens, pos));
+		return null;
+	}
+
+	private static Grant partial(boolean implicit, byte[] tokens, int pos) {
+		return new Grant(implicit, Arrays.copyOf(tokens, pos));
+	}
+
+	/**
+	 * Gives the slots back; the very same bytes are written back to the
+	 * pipe, as some tools encode information in them.
+	 */
+	public void release(Grant g) {
+		if (g.implicit)
+			implicitFree.set(true);
+
+		try {
+			if (g.tokens.length > 0)
+				pipe.write(g.tokens);
+		} catch (IOException ex) {
+			System.out.println(ex);
+		}
+	}
+
+	/**
+	 * Returns MAKEFLAGS value for child processes, with any jobserver
+	 * options of the given value replaced by ours.
+	 */
+	public String makeFlags(String flags) {
+		var ws = new ArrayList<String>();
+
+		if (flags != null) {
+			for (var w: flags.trim().split("\\s+")) {
+				if (w.isEmpty() || w.startsWith(AUTH_FLAG)
+					|| w.startsWith(OLD_AUTH_FLAG)
+					|| w.startsWith("-j"))
+					continue;
+
+				ws.add(w);
+			}
+		}
+
+		if (slots > 0)
+			ws.add("-j" + slots);
+
+		ws.add(AUTH_FLAG + CHILD_FD + "," + CHILD_FD);
+		return String.join(" ", ws);
+	}
+
+	/**
+	 * Returns command line running the given command with the pipe
+	 * open as descriptor expected by {@link #makeFlags}.
+	 */
+	public List<String> wrap(List<String> command) {
+		var out = new ArrayList<String>(command.size() + 4);
+		out.add("/bin/sh");
+		out.add("-c");
+		out.add("exec " + CHILD_FD + "<>\"$0\" && exec \"$@\"");
+		out.add(exported.toString());
+		out.addAll(command);
+		return out;
+	}
+
+	@Override
+	public void close() throws IOException {
+		pipe.close();
+
+		if (dir != null) {
+			Files.deleteIfExists(exported);
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	private static final String AUTH_FLAG = "--jobserver-auth=";
+	private static final String OLD_AUTH_FLAG = "--jobserver-fds=";
+	private static final int CHILD_FD = 3;
+	private static final long MIN_RETRY_MILLIS = 1;
+	private static final long MAX_RETRY_MILLIS = 100;
+	private static final Grant EMPTY_GRANT
+	= new Grant(false, new byte[0]);
+
+	private final RandomAccessFile pipe;
+	/* Same descriptor as the pipe, used to check for pending tokens. */
+	private final FileInputStream available;
+	private final Path exported;
+	private final int slots;
+	private final Path dir;
+	private final AtomicBoolean implicitFree = new AtomicBoolean(true);
+	private final Object acquireLock = new Object();
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadGovernor periodically resizes the CPU and memory token pools of a
+ * context to match what the machine can currently offer, based on:
+ * <ul>
+ * <li>cgroup v2 limits (cpu.max and memory.max), which cap the
+ * configured amounts;</li>
+ * <li>load average, of which anything beyond our own running actions is
+ * taken for a foreign load competing for the same processors;</li>
+ * <li>pressure stall information, which makes the pools shrink as long
+ * as tasks are being stalled.</li>
+ * </ul>
+ *
+ * Load average lags behind the actual load, so our own usage is averaged
+ * the same way and the larger of the current and the averaged figure is
+ * taken for our share of the load; otherwise our recent load would be
+ * taken for a foreign one as our actions wind down.
+ *
+ * Pressure is read from the cgroup we are running in (cpu.pressure and
+ * memory.pressure) when available, as the host wide figures in
+ * /proc/pressure also reflect stalls in unrelated cgroups.
+ *
+ * Pools shrink fast and grow by at most a quarter per step (memory by no
+ * less than a sixteenth of the limit, so that a pool squeezed to nothing
+ * recovers in reasonable time), to avoid oscillation. Every change is
+ * reported through metrics.
+ *
+ * Unexpected contents of any of the above files are taken for absence
+ * of the respective limit.
+ */
+class LoadGovernor {
+	/**
+	 * Sources of the figures the governor works from.
+	 */
+	interface Readings {
+		/* Returns Integer.MAX_VALUE when not limited. */
+		int cpuLimit();
+
+		/* Returns Long.MAX_VALUE when not limited. */
+		long memoryLimit();
+
+		/* Returns a negative value when not available. */
+		double loadAverage();
+
+		/* Returns share (in percent) of time tasks were stalled. */
+		double pressure(String resource);
+
+		long nanoTime();
+	}
+
+	LoadGovernor(
+		ResourcePool pool_, int cpuLimit_, long memoryLimit_,
+		Metrics metrics_
+	) {
+		this(
+			pool_, cpuLimit_, memoryLimit_, metrics_,
+			new HostReadings(), HOST_CPUS
+		);
+	}
+
+	LoadGovernor(
+		ResourcePool pool_, int cpuLimit_, long memoryLimit_,
+		Metrics metrics_, Readings readings_, int hostCpus_
+	) {
+		pool = pool_;
+		metrics = metrics_;
+		readings = readings_;
+		hostCpus = hostCpus_;
+		cpuLimit = Math.min(cpuLimit_, readings.cpuLimit());
+		memoryLimit = Math.min(memoryLimit_, readings.memoryLimit());
+		lastStep = readings.nanoTime();
+
+		adjust(cpuLimit, memoryLimit);
+	}
+
+	void start(long periodMillis) {
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			var t = new Thread(r, "yzr-governor");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleWithFixedDelay(
+			this::step, periodMillis, periodMillis,
+			TimeUnit.MILLISECONDS
+		);
+	}
+
+	void stop() {
+		if (timer != null)
+			timer.shutdownNow();
+	}
+
+	void step() {
+		var now = readings.nanoTime();
+		var decay = Math.exp(
+			-(double)(now - lastStep) / LOAD_AVERAGE_NANOS
+		);
+		lastStep = now;
+		ownLoad = ownLoad * decay + pool.cpuInUse() * (1 - decay);
+
+		int cpu = pool.cpu();
+		long memory = pool.memory();
+		int cpuTarget = cpuTarget();
+		long memoryTarget = memoryTarget();
+
+		if (cpuTarget > cpu)
+			cpuTarget = Math.min(
+				cpuTarget, cpu + Math.max(1, cpu / 4)
+			);
+
+		if (memoryTarget > memory)
+			memoryTarget = memory + Math.min(
+				memoryTarget - memory,
+				Math.max(memoryLimit / 16, memory / 4)
+			);
+
+		adjust(cpuTarget, memoryTarget);
+	}
+
+	private int cpuTarget() {
+		int target = cpuLimit;
+		var load = readings.loadAverage();
+
+		if (load >= 0) {
+			var own = Math.max(ownLoad, pool.cpuInUse());
+			var foreign = (int)Math.round(load - own);
+			if (foreign > 0)
+				target = Math.min(target, hostCpus - foreign);
+		}
+
+		var stall = readings.pressure("cpu");
+		if (stall > CPU_STALL_LIMIT)
+			target = Math.min(target, pool.cpu() - pool.cpu() / 4);
+
+		return Math.max(1, target);
+	}
+
+	/*
+	 * Under memory pressure, no more memory is handed out than already
+	 * is; the actions holding it will be let finish.
+	 */
+	private long memoryTarget() {
+		if (readings.pressure("memory") > MEMORY_STALL_LIMIT)
+			return Math.max(1, Math.min(
+				memoryLimit, pool.memoryInUse()
+			));
+
+		return memoryLimit;
+	}
+
+	private void adjust(int cpu, long memory) {
+		if (cpu == pool.cpu() && memory == pool.memory())
+			return;
+
+		pool.resize(cpu, memory);
+		metrics.gauge("yzr.tokens.cpu", cpu);
+		metrics.gauge("yzr.tokens.memory", memory);
+		metrics.count("yzr.tokens.adjusted");
+	}
+
+	private static class HostReadings implements Readings {
+		HostReadings() {
+			cgroup = cgroupDir();
+		}
+
+		@Override
+		public int cpuLimit() {
+			return cgroupCpuLimit(cgroup);
+		}
+
+		@Override
+		public long memoryLimit() {
+			return cgroupMemoryLimit(cgroup);
+		}
+
+		@Override
+		public double loadAverage() {
+			return LoadGovernor.loadAverage();
+		}
+
+		/*
+		 * Pressure files of the cgroup are only there if the kernel
+		 * supports pressure accounting and the controller is enabled.
+		 */
+		@Override
+		public double pressure(String resource) {
+			if (cgroup != null) {
+				var s = read(cgroup.resolve(
+					resource + ".pressure"
+				));
+				if (s != null)
+					return parsePressure(s);
+			}
+
+			var s = read(Paths.get("/proc/pressure", resource));
+			return s != null ? parsePressure(s) : 0;
+		}
+
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+
+		private final Path cgroup;
+	}
+
+	/*
+	 * cgroup v2 hierarchy may be mounted on its own, or alongside v1
+	 * controllers in the "hybrid" layout.
+	 */
+	private static Path cgroupDir() {
+		var self = read(Paths.get("/proc/self/cgroup"));
+		if (self == null)
+			return null;
+
+		for (var l: self.split("\n")) {
+			if (!l.startsWith("0::"))
+				continue;
+
+			var rel = l.substring(3).replaceFirst("^/", "");
+			for (var root: CGROUP2_ROOTS) {
+				var base = Paths.get(root);
+				var ctl = base.resolve("cgroup.controllers");
+				if (Files.exists(ctl))
+					return base.resolve(rel);
+			}
+		}
+
+		return null;
+	}
+
+	/* cpu.max holds "max PERIOD" or "QUOTA PERIOD". */
+	private static int cgroupCpuLimit(Path cgroup) {
+		var s = cgroup != null ? read(cgroup.resolve("cpu.max")) : null;
+		if (s == null)
+			return Integer.MAX_VALUE;
+
+		var f = s.trim().split(" ");
+		if (f.length < 2 || f[0].equals("max"))
+			return Integer.MAX_VALUE;
+
+		try {
+			var quota = Long.parseLong(f[0]);
+			var period = Long.parseLong(f[1]);
+			if (quota <= 0 || period <= 0)
+				return Integer.MAX_VALUE;
+
+			return (int)Math.min(
+				Integer.MAX_VALUE,
+				Math.max(1, (quota + period - 1) / period)
+			);
+		} catch (NumberFormatException ex) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	private static long cgroupMemoryLimit(Path cgroup) {
+		var s = cgroup != null
+			? read(cgroup.resolve("memory.max")) : null;
+		if (s == null || s.trim().equals("max"))
+			return Long.MAX_VALUE;
+
+		try {
+			var limit = Long.parseLong(s.trim());
+			return limit > 0 ? limit : Long.MAX_VALUE;
+		} catch (NumberFormatException ex) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/* First field of /proc/loadavg is the 1 minute load average. */
+	private static double loadAverage() {
+		var s = read(Paths.get("/proc/loadavg"));
+		if (s == null)
+			return -1;
+
+		try {
+			return Double.parseDouble(s.split(" ")[0]);
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	/*
+	 * Returns share (in percent) of the last 10 seconds some tasks were
+	 * stalled on the resource, from a line looking like:
+	 * "some avg10=1.23 avg60=0.50 avg300=0.10 total=12345".
+	 */
+	private static double parsePressure(String s) {
+		if (!s.startsWith("some "))
+			return 0;
+
+		for (var f: s.split("\n")[0].split(" ")) {
+			if (!f.startsWith("avg10="))
+				continue;
+
+			try {
+				return Double.parseDouble(f.substring(6));
+			} catch (NumberFormatException ex) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	private static String read(Path p) {
+		try {
+			return Files.readString(p);
+		} catch (IOException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private static final String[] CGROUP2_ROOTS = {
+		"/sys/fs/cgroup", "/sys/fs/cgroup/unified"
+	};
+	private static final int HOST_CPUS
+	= Runtime.getRuntime().availableProcessors();
+	private static final double CPU_STALL_LIMIT = 40;
+	private static final double MEMORY_STALL_LIMIT = 10;
+	/* Time constant of the 1 minute load average. */
+	private static final double LOAD_AVERAGE_NANOS = 60e9;
+
+	private final ResourcePool pool;
+	private final Metrics metrics;
+	private final Readings readings;
+	private final int hostCpus;
+	private final int cpuLimit;
+	private final long memoryLimit;
+	private ScheduledExecutorService timer;
+	private long lastStep;
+	private double ownLoad;
+}
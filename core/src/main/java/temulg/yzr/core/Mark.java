@@ -8,6 +8,7 @@ package temulg.yzr.core;
 
 import java.time.Instant;
 import java.util.Optional;
+import java.util.OptionalLong;
 
 /**
  * Mark is a baisc measure of result in the Yzr system. Given a number of
@@ -21,6 +22,26 @@ import java.util.Optional;
 public interface Mark {
 	Optional<Instant> lastModified();
 
+	/**
+	 * Content digest of the mark, if one is available. When both the
+	 * recorded and the current state of a mark carry a digest, the
+	 * digests take precedence over modification times in deciding
+	 * whether the mark has changed.
+	 */
+	default OptionalLong digest() {
+		return OptionalLong.empty();
+	}
+
+	/**
+	 * Returns a stable, run independent identity of the mark, under
+	 * which its state is recorded on its own, apart from the actions
+	 * using it. Marks without a key are only recorded along with the
+	 * actions.
+	 */
+	default String key() {
+		return null;
+	}
+
 	default Entity entity() {
 		return (Entity)this;
 	}
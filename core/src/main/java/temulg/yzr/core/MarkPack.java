@@ -16,6 +16,12 @@ public interface MarkPack {
 	Ref put(String name, Mark m);
 	Ref put(int pos, Mark m);
 
+	/**
+	 * Returns position of the mark with the given name, or -1 if there
+	 * is no such mark.
+	 */
+	int position(String name);
+
 	int size();
 
 	public static MarkPack EMPTY = new MarkPack() {
@@ -44,6 +50,11 @@ public interface MarkPack {
 			throw new IndexOutOfBoundsException();
 		}
 
+		@Override
+		public int position(String name) {
+			return -1;
+		}
+
 		@Override
 		public int size() {
 			return 0;
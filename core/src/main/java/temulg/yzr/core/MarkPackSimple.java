@@ -9,16 +9,71 @@ package temulg.yzr.core;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-
-public class MarkPackSimple implements MarkPack {
-	public static class Ref implements MarkPack.Ref {
+import java.util.function.Consumer;
+
+/**
+ * MarkPackSimple is a fixed size pack of marks, addressed by position or
+ * by name, serving both as requisite or product pack of an operator and
+ * as storage of the respective action. Marks put into the pack the
+ * operator returns are carried over to every storage allocated off it,
+ * so that operators may fix some of their marks (such as products of
+ * known path) upfront.
+ */
+public class MarkPackSimple implements MarkPack, ReqPack, ProdPack,
+ReqPack.Storage, ProdPack.Storage {
+	public static class Ref implements MarkPack.Ref, ReqPack.Setter,
+	ProdPack.Getter {
 		private Ref(int pos_) {
 			pos = pos_;
 		}
 
+		@Override
+		public void set(ReqPack.Storage s, Mark m) {
+			((MarkPackSimple)s).marks[pos] = m;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <M extends Mark> M get(ProdPack.Storage s) {
+			return (M)((MarkPackSimple)s).marks[pos];
+		}
+
 		private int pos;
 	}
 
+	/**
+	 * Resolves a {@link PackSelector}; other selectors, as well as
+	 * those not matching any mark, resolve to null.
+	 */
+	@Override
+	public Ref select(ReqPack.Selector sel) {
+		return resolve(sel);
+	}
+
+	@Override
+	public Ref select(ProdPack.Selector sel) {
+		return resolve(sel);
+	}
+
+	private Ref resolve(Object sel) {
+		if (!(sel instanceof PackSelector))
+			return null;
+
+		var pos = ((PackSelector)sel).position(this);
+		return pos >= 0 && pos < marks.length ? new Ref(pos) : null;
+	}
+
+	@Override
+	public MarkPackSimple allocate() {
+		return new MarkPackSimple(this);
+	}
+
+	@Override
+	public void forEach(Consumer<? super Mark> cons) {
+		for (var m: marks)
+			cons.accept(m);
+	}
+
 	@Override
 	public Mark get(String name) {
 		var pos = named.get(name);
@@ -54,6 +109,12 @@ public class MarkPackSimple implements MarkPack {
 		return new Ref(pos);
 	}
 
+	@Override
+	public int position(String name) {
+		var pos = named.get(name);
+		return pos != null ? pos : -1;
+	}
+
 	@Override
 	public int size() {
 		return marks.length;
@@ -106,6 +167,11 @@ public class MarkPackSimple implements MarkPack {
 		}
 	}
 
+	private MarkPackSimple(MarkPackSimple other) {
+		marks = other.marks.clone();
+		named = other.named;
+	}
+
 	private final Mark[] marks;
 	private final Map<String, Integer> named;
-}
\ No newline at end of file
+}
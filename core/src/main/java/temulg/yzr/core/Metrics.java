@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+/**
+ * Metrics is a sink for numeric observations made while building, to be
+ * forwarded to whatever monitoring system is in use.
+ */
+public interface Metrics {
+	/**
+	 * Reports current value of a quantity.
+	 */
+	void gauge(String name, long value);
+
+	/**
+	 * Reports an occurrence of an event.
+	 */
+	default void count(String name) {
+	}
+
+	public static final Metrics NONE = (name, value) -> {};
+}
@@ -6,8 +6,11 @@
 
 package temulg.yzr.core;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 import org.jgrapht.alg.cycle.CycleDetector;
 import org.jgrapht.graph.DefaultEdge;
@@ -31,30 +34,211 @@ public class OpGraph extends Entity {
 		return false;
 	}
 
+	public void forEachOperator(Consumer<Operator> cons) {
+		for (var v: freeze().vertices)
+			cons.accept(v.op);
+	}
+
 	public ActionTracker makeActionTracker(Context context) {
-		var at = new ActionTracker(context, vertexMap.size());
-		HashMap<UUID, ActionTracker.Item> imap = new HashMap<>();
+		var f = freeze();
+		int n = f.vertices.length;
+		var at = new ActionTracker(
+			context, f, new ActionTracker.Item[n], n
+		);
+		var critPaths = criticalPaths(f, context.costs(), null);
 
-		vertexMap.forEach((k, v) -> {
-			var prevCount = g.inDegreeOf(v);
+		for (int pos = 0; pos < n; pos++) {
+			var prevCount = f.inEnd(pos) - f.inBegin(pos);
+			var it = at.new Item(pos, prevCount, critPaths[pos]);
 
-			var it = at.new Item(v, prevCount, g.outDegreeOf(v));
-			imap.put(k, it);
+			at.items[pos] = it;
 			if (prevCount == 0)
 				at.roots.add(it);
-		});
+		}
 
-		g.edgeSet().forEach(edge -> {
-			var src = g.getEdgeSource(edge).op.entity().getEID();
-			var dst = g.getEdgeTarget(edge).op.entity().getEID();
-			imap.get(src).linkNext(
-				imap.get(dst), edge.prod, edge.req
-			);
-		});
+		return at;
+	}
+
+	/**
+	 * Makes a tracker covering only the given dirty operators and
+	 * everything downstream of them. Actions outside of the dirty
+	 * subgraph are not re-applied: their products, as made by the
+	 * previous tracker, are fed directly to the dirty actions.
+	 *
+	 * Actions contributing to any of the goals are ranked ahead of all
+	 * other actions.
+	 *
+	 * The previous tracker must have run to completion and is taken over
+	 * by the new one; it must not be used afterwards. If the graph was
+	 * modified since the previous tracker was made, its products can not
+	 * be matched up with the current vertices and a tracker covering the
+	 * whole graph is made instead.
+	 */
+	public ActionTracker makeActionTracker(
+		Context context, Collection<Operator> dirty,
+		Collection<Operator> goals, ActionTracker prev
+	) {
+		var f = freeze();
+		if (prev.graph != f)
+			return makeActionTracker(context);
+
+		var member = new boolean[f.vertices.length];
+		var sub = downstreamOf(f, dirty, member);
+		var at = new ActionTracker(context, f, prev.items, sub.length);
+		var critPaths = criticalPaths(f, context.costs(), member);
+		var boosted = upstreamOf(f, goals, member);
+
+		for (var pos: sub) {
+			int prevCount = 0;
+			for (int e = f.inBegin(pos); e < f.inEnd(pos); e++) {
+				if (member[f.source[f.inEdge[e]]])
+					prevCount++;
+			}
+
+			long critPath = critPaths[pos];
+			if (boosted[pos])
+				critPath += GOAL_BOOST;
+
+			var it = at.new Item(pos, prevCount, critPath);
+			for (int e = f.inBegin(pos); e < f.inEnd(pos); e++) {
+				var src = f.source[f.inEdge[e]];
+				if (!member[src])
+					it.feed(at.items[src], f.inEdge[e]);
+			}
+
+			at.items[pos] = it;
+			if (prevCount == 0)
+				at.roots.add(it);
+		}
 
 		return at;
 	}
 
+	/**
+	 * Returns array based form of the graph, which remains valid until
+	 * the graph is modified.
+	 */
+	Frozen freeze() {
+		if (frozen == null)
+			frozen = new Frozen();
+
+		return frozen;
+	}
+
+	private static int[] downstreamOf(
+		Frozen f, Collection<Operator> ops, boolean[] member
+	) {
+		var queue = new int[f.vertices.length];
+		int tail = 0;
+
+		for (var op: ops) {
+			var pos = f.indexOf(op);
+			if (pos >= 0 && !member[pos]) {
+				member[pos] = true;
+				queue[tail++] = pos;
+			}
+		}
+
+		for (int head = 0; head < tail; head++) {
+			var pos = queue[head];
+			for (int e = f.outBegin(pos); e < f.outEnd(pos); e++) {
+				var next = f.target[e];
+				if (!member[next]) {
+					member[next] = true;
+					queue[tail++] = next;
+				}
+			}
+		}
+
+		return Arrays.copyOf(queue, tail);
+	}
+
+	private static boolean[] upstreamOf(
+		Frozen f, Collection<Operator> ops, boolean[] member
+	) {
+		var out = new boolean[f.vertices.length];
+		var queue = new int[f.vertices.length];
+		int tail = 0;
+
+		for (var op: ops) {
+			var pos = f.indexOf(op);
+			if (pos >= 0 && member[pos] && !out[pos]) {
+				out[pos] = true;
+				queue[tail++] = pos;
+			}
+		}
+
+		for (int head = 0; head < tail; head++) {
+			var pos = queue[head];
+			for (int e = f.inBegin(pos); e < f.inEnd(pos); e++) {
+				var prev = f.source[f.inEdge[e]];
+				if (member[prev] && !out[prev]) {
+					out[prev] = true;
+					queue[tail++] = prev;
+				}
+			}
+		}
+
+		return out;
+	}
+
+	/*
+	 * Critical path of a vertex is its own expected cost plus the
+	 * longest critical path among its successors. Vertices are resolved
+	 * starting from the sinks, so successors are always resolved first.
+	 * Only vertices in the member set (all, if null) are considered.
+	 */
+	private static long[] criticalPaths(
+		Frozen f, ActionCosts costs, boolean[] member
+	) {
+		int n = f.vertices.length;
+		var pending = new int[n];
+		var queue = new int[n];
+		int tail = 0;
+
+		for (int pos = 0; pos < n; pos++) {
+			if (!isMember(member, pos))
+				continue;
+
+			for (int e = f.outBegin(pos); e < f.outEnd(pos); e++) {
+				if (isMember(member, f.target[e]))
+					pending[pos]++;
+			}
+
+			if (pending[pos] == 0)
+				queue[tail++] = pos;
+		}
+
+		var paths = new long[n];
+		for (int head = 0; head < tail; head++) {
+			var pos = queue[head];
+			long next = 0;
+
+			for (int e = f.outBegin(pos); e < f.outEnd(pos); e++) {
+				var dst = f.target[e];
+				if (isMember(member, dst))
+					next = Math.max(next, paths[dst]);
+			}
+
+			paths[pos] = next + costs.estimate(f.vertices[pos].op);
+
+			for (int e = f.inBegin(pos); e < f.inEnd(pos); e++) {
+				var prev = f.source[f.inEdge[e]];
+				if (!isMember(member, prev))
+					continue;
+
+				if (--pending[prev] == 0)
+					queue[tail++] = prev;
+			}
+		}
+
+		return paths;
+	}
+
+	private static boolean isMember(boolean[] member, int pos) {
+		return member == null || member[pos];
+	}
+
 	public void Add(
 		Operator src_, ProdPack.Selector prodSel,
 		Operator dst_, ReqPack.Selector reqSel
@@ -62,6 +246,7 @@ public class OpGraph extends Entity {
 		var src = getVertex(src_);
 		var dst = getVertex(dst_);
 
+		frozen = null;
 		g.addEdge(src, dst, new Edge(
 			src.products.select(prodSel),
 			dst.requisites.select(reqSel)
@@ -96,6 +281,8 @@ public class OpGraph extends Entity {
 		final Operator op;
 		final ReqPack requisites;
 		final ProdPack products;
+		/* Dense index, as assigned by the latest freeze. */
+		int index;
 	}
 
 	static class Edge extends DefaultEdge {
@@ -115,8 +302,95 @@ public class OpGraph extends Entity {
 		final transient ReqPack.Setter req;
 	}
 
+	/**
+	 * Compressed sparse row form of the graph, with vertices assigned
+	 * dense indices. Outgoing edges of vertex i occupy positions
+	 * [outBegin(i), outEnd(i)) of the edge arrays; incoming edges of
+	 * vertex i are listed, as edge positions, in the [inBegin(i), inEnd(i))
+	 * range of the inEdge array.
+	 */
+	final class Frozen {
+		private Frozen() {
+			int n = vertexMap.size();
+			int m = g.edgeSet().size();
+
+			vertices = new Vertex[n];
+			outStart = new int[n + 1];
+			inStart = new int[n + 1];
+			source = new int[m];
+			target = new int[m];
+			prod = new ProdPack.Getter[m];
+			req = new ReqPack.Setter[m];
+			inEdge = new int[m];
+
+			int pos = 0;
+			for (var v: vertexMap.values()) {
+				vertices[pos] = v;
+				v.index = pos;
+				outStart[pos + 1] = outStart[pos]
+					+ g.outDegreeOf(v);
+				inStart[pos + 1] = inStart[pos]
+					+ g.inDegreeOf(v);
+				pos++;
+			}
+
+			var outFill = Arrays.copyOf(outStart, n);
+			var inFill = Arrays.copyOf(inStart, n);
+
+			for (var edge: g.edgeSet()) {
+				int src = g.getEdgeSource(edge).index;
+				int dst = g.getEdgeTarget(edge).index;
+				int e = outFill[src]++;
+
+				source[e] = src;
+				target[e] = dst;
+				prod[e] = edge.prod;
+				req[e] = edge.req;
+				inEdge[inFill[dst]++] = e;
+			}
+		}
+
+		int outBegin(int pos) {
+			return outStart[pos];
+		}
+
+		int outEnd(int pos) {
+			return outStart[pos + 1];
+		}
+
+		int inBegin(int pos) {
+			return inStart[pos];
+		}
+
+		int inEnd(int pos) {
+			return inStart[pos + 1];
+		}
+
+		/* Returns index of the operator's vertex, or -1 if none. */
+		int indexOf(Operator op) {
+			var v = vertexMap.get(op.entity().getEID());
+			return v != null ? v.index : -1;
+		}
+
+		final Vertex[] vertices;
+		private final int[] outStart;
+		private final int[] inStart;
+		final int[] source;
+		final int[] target;
+		final ProdPack.Getter[] prod;
+		final ReqPack.Setter[] req;
+		final int[] inEdge;
+	}
+
+	/*
+	 * Added to the critical path of actions contributing to explicitly
+	 * requested goals; large enough to dominate any realistic path.
+	 */
+	private static final long GOAL_BOOST = 1L << 62;
+
 	private final HashMap<UUID, Vertex> vertexMap = new HashMap<>();
 	private final DirectedMultigraph<
 		Vertex, Edge
 	> g = new DirectedMultigraph<>(null, null, false);
+	private Frozen frozen;
 }
@@ -24,6 +24,48 @@ public interface Operator {
 		Instant requisitesUpdated();
 
 		void productsUpdated(Instant inst);
+
+		/**
+		 * Reports peak memory use of the action (such as peak
+		 * resident set size of a child process), in bytes.
+		 */
+		void memoryUsed(long bytes);
+	}
+
+	/**
+	 * Returns a stable, run independent identity of the operator and its
+	 * configuration. Results of operators without a signature are never
+	 * persisted and their actions are always applied.
+	 */
+	default String signature() {
+		return null;
+	}
+
+	/**
+	 * Returns the mark standing for the program actions of the operator
+	 * run, if it is not among the requisites already, so that results
+	 * cached by {@link ActionCache} are told apart by the program
+	 * binary as well.
+	 */
+	default Mark tool() {
+		return null;
+	}
+
+	/**
+	 * Tells whether actions of the operator spend most of their time
+	 * waiting on I/O (file system access, network or child processes)
+	 * rather than using the CPU.
+	 */
+	default boolean ioBound() {
+		return false;
+	}
+
+	/**
+	 * Returns resources the operator's actions need to hold while being
+	 * applied; one CPU slot by default.
+	 */
+	default Resources resources() {
+		return Resources.DEFAULT;
 	}
 
 	ReqPack newRequisites();
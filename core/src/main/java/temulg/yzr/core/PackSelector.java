@@ -6,42 +6,22 @@
 
 package temulg.yzr.core;
 
-import temulg.yzr.core.MarkPack.Ref;
-
-public interface PackSelector {
-	Mark get(MarkPack pack);
-
-	MarkPack.Ref put(MarkPack pack, Mark m);
-
-	public static PackSelector named(String name_) {
-		return new PackSelector() {
-			@Override
-			public Ref put(MarkPack pack, Mark m) {
-				return pack.put(name, m);
-			}
-		
-			@Override
-			public Mark get(MarkPack pack) {
-				return pack.get(name);
-			}
-
-			private final String name = name_;
-		};
+/**
+ * Selects a mark of a {@link MarkPack}, by name or by position, as either
+ * requisite or product of an operator.
+ */
+public interface PackSelector extends ReqPack.Selector, ProdPack.Selector {
+	/**
+	 * Returns position of the selected mark within the pack, or -1 if
+	 * the pack has no such mark.
+	 */
+	int position(MarkPack pack);
+
+	public static PackSelector named(String name) {
+		return pack -> pack.position(name);
 	}
 
-	public static PackSelector positional(int pos_) {
-		return new PackSelector() {
-			@Override
-			public Ref put(MarkPack pack, Mark m) {
-				return pack.put(pos, m);
-			}
-		
-			@Override
-			public Mark get(MarkPack pack) {
-				return pack.get(pos);
-			}
-
-			private final int pos = pos_;
-		};
+	public static PackSelector positional(int pos) {
+		return pack -> pos < pack.size() ? pos : -1;
 	}
 }
@@ -6,8 +6,11 @@
 
 package temulg.yzr.core;
 
+import java.util.function.Consumer;
+
 public interface ProdPack {
 	public interface Storage {
+		void forEach(Consumer<? super Mark> cons);
 	}
 
 	public interface Selector {
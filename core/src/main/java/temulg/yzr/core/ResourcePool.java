@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+/**
+ * Machine wide pools of resource tokens, which actions must obtain before
+ * being started.
+ *
+ * A request exceeding the pool capacity is granted once the respective
+ * pool is entirely free, so that an oversized action is still admitted
+ * once it has the machine to itself. Free amounts may thus go negative,
+ * same as when the pool is shrunk while its tokens are in use.
+ */
+class ResourcePool {
+	ResourcePool(int cpu_, long memory_, int io_) {
+		cpu = cpu_;
+		memory = memory_;
+		io = io_;
+		freeCpu = cpu;
+		freeMemory = memory;
+		freeIo = io;
+	}
+
+	synchronized boolean tryAcquire(int cpu_, long memory_, int io_) {
+		if (!fits(cpu_, freeCpu, cpu) || !fits(
+			memory_, freeMemory, memory
+		) || !fits(io_, freeIo, io))
+			return false;
+
+		freeCpu -= cpu_;
+		freeMemory -= memory_;
+		freeIo -= io_;
+		return true;
+	}
+
+	synchronized void release(int cpu_, long memory_, int io_) {
+		freeCpu += cpu_;
+		freeMemory += memory_;
+		freeIo += io_;
+	}
+
+	/**
+	 * Changes CPU and memory capacity; tokens in use are unaffected.
+	 */
+	synchronized void resize(int cpu_, long memory_) {
+		freeCpu += cpu_ - cpu;
+		cpu = cpu_;
+		freeMemory += memory_ - memory;
+		memory = memory_;
+	}
+
+	synchronized int cpu() {
+		return cpu;
+	}
+
+	synchronized int cpuInUse() {
+		return cpu - freeCpu;
+	}
+
+	synchronized long memory() {
+		return memory;
+	}
+
+	synchronized long memoryInUse() {
+		return memory - freeMemory;
+	}
+
+	private static boolean fits(long amount, long free, long capacity) {
+		return amount <= free || free >= capacity;
+	}
+
+	private int cpu;
+	private long memory;
+	private final int io;
+	private int freeCpu;
+	private long freeMemory;
+	private int freeIo;
+}
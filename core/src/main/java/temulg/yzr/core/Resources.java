@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+/**
+ * Resources an action is expected to hold while being applied: CPU slots,
+ * bytes of memory and I/O slots.
+ *
+ * Memory declared here is only a lower bound; actual peak memory use of
+ * actions is learned as they run (see {@link Operator.Action#memoryUsed})
+ * and the larger of the two is taken into account.
+ */
+public class Resources {
+	public static final Resources NONE = builder().cpu(0).build();
+
+	public static final Resources DEFAULT = builder().build();
+
+	public int cpu() {
+		return cpu;
+	}
+
+	public long memory() {
+		return memory;
+	}
+
+	public int io() {
+		return io;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static class Builder {
+		public Builder cpu(int cpu_) {
+			cpu = cpu_;
+			return this;
+		}
+
+		public Builder memory(long memory_) {
+			memory = memory_;
+			return this;
+		}
+
+		public Builder io(int io_) {
+			io = io_;
+			return this;
+		}
+
+		public Resources build() {
+			if (cpu < 0 || memory < 0 || io < 0)
+				throw new IllegalArgumentException(
+					"Resource amounts must not be negative"
+				);
+
+			return new Resources(this);
+		}
+
+		private int cpu = 1;
+		private long memory;
+		private int io;
+	}
+
+	private Resources(Builder b) {
+		cpu = b.cpu;
+		memory = b.memory;
+		io = b.io;
+	}
+
+	private final int cpu;
+	private final long memory;
+	private final int io;
+}
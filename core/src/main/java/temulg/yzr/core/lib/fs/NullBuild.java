@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core.lib.fs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import temulg.yzr.core.BuildState;
+import temulg.yzr.core.Context;
+import temulg.yzr.core.OpGraph;
+import temulg.yzr.core.lib.fs.marks.DigestCache;
+import temulg.yzr.core.lib.fs.marks.Node;
+
+/**
+ * NullBuild tells, without making an action tracker, whether a graph is
+ * entirely up to date, so that a build with nothing changed can be
+ * finished in the time it takes to stat the files involved.
+ *
+ * A graph is up to date when every operator in it has its state recorded
+ * and every mark recorded for those operators (see {@link
+ * temulg.yzr.core.Mark#key}) is still in the recorded state. Marks are
+ * compared the way the action tracker does: by digest, if one was
+ * recorded, by modification time otherwise. Files are stat'ed in parallel
+ * batches, stopping at the first difference found.
+ *
+ * Marks other than file nodes can not be checked this way, so a graph
+ * with any such mark recorded is taken for changed.
+ */
+public class NullBuild {
+	private NullBuild() {
+	}
+
+	public static boolean upToDate(Context context, OpGraph graph) {
+		var state = context.buildState();
+		if (state == null)
+			return false;
+
+		/*
+		 * Marks shared by several operators are stat'ed once, against
+		 * all distinct states recorded for them.
+		 */
+		var stamps = new LinkedHashMap<String, long[]>();
+		if (!state.forEachMark(graph, (key, time, digest) -> {
+			stamps.merge(
+				key, new long[] {time, digest}, NullBuild::merge
+			);
+		}))
+			return false;
+
+		var keys = new ArrayList<>(stamps.keySet());
+		var batches = (keys.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+		var done = new CountDownLatch(batches);
+		var changed = new AtomicBoolean();
+
+		for (int pos = 0; pos < keys.size(); pos += BATCH_SIZE) {
+			var first = pos;
+			var last = Math.min(keys.size(), pos + BATCH_SIZE);
+
+			context.executeIo(() -> {
+				try {
+					for (int k = first; k < last; k++) {
+						if (changed.get())
+							return;
+
+						var key = keys.get(k);
+						var w = stamps.get(key);
+						if (!matches(key, w))
+							changed.set(true);
+					}
+				} catch (RuntimeException ex) {
+					changed.set(true);
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+
+		try {
+			done.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		return !changed.get();
+	}
+
+	private static long[] merge(long[] w, long[] stamp) {
+		for (int pos = 0; pos < w.length; pos += 2) {
+			if (w[pos] == stamp[0] && w[pos + 1] == stamp[1])
+				return w;
+		}
+
+		var out = Arrays.copyOf(w, w.length + 2);
+		out[w.length] = stamp[0];
+		out[w.length + 1] = stamp[1];
+		return out;
+	}
+
+	/*
+	 * Mirrors BuildState.Record matching: a missing (or otherwise
+	 * inaccessible) file is always changed, a recorded digest takes
+	 * precedence over modification time. Paths are stat'ed directly,
+	 * without making nodes.
+	 */
+	private static boolean matches(String key, long[] w) {
+		if (!key.startsWith(Node.KEY_PREFIX))
+			return false;
+
+		var path = Paths.get(
+			key.substring(Node.KEY_PREFIX.length())
+		);
+
+		try {
+			var time = BuildState.toNanos(
+				Files.getLastModifiedTime(path).toInstant()
+			);
+			long digest = BuildState.NO_DIGEST;
+
+			for (int pos = 0; pos < w.length; pos += 2) {
+				if (w[pos + 1] == BuildState.NO_DIGEST) {
+					if (time != w[pos])
+						return false;
+
+					continue;
+				}
+
+				if (digest == BuildState.NO_DIGEST)
+					digest = DigestCache.shared().digest(path);
+
+				if (digest != w[pos + 1])
+					return false;
+			}
+
+			return true;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	private static final int BATCH_SIZE = 256;
+}
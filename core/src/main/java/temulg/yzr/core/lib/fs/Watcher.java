@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core.lib.fs;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import temulg.yzr.core.ActionTracker;
+import temulg.yzr.core.Context;
+import temulg.yzr.core.Mark;
+import temulg.yzr.core.OpGraph;
+import temulg.yzr.core.Operator;
+import temulg.yzr.core.lib.fs.marks.Node;
+
+/**
+ * Watcher keeps a graph built, rebuilding only the actions affected by
+ * file system changes as they are reported.
+ *
+ * Every file node referenced by the graph has its parent directory
+ * registered with the platform watch service (directories yet to be made
+ * are picked up as soon as they appear). Once a change is reported,
+ * operators referencing the changed files, along with everything
+ * downstream of them, are re-applied; the rest of the graph is left
+ * alone, so the cost of a rebuild is proportional to the size of the
+ * affected subgraph rather than to the size of the whole graph. Actions
+ * contributing to the goals are dispatched ahead of all other actions.
+ */
+public class Watcher implements AutoCloseable {
+	public Watcher(
+		Context context_, OpGraph graph_, Collection<Operator> goals_
+	) throws IOException {
+		context = context_;
+		graph = graph_;
+		goals = goals_;
+		ws = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Performs initial build, then waits for changes and rebuilds as
+	 * needed until the watcher is closed.
+	 */
+	public void run() throws IOException {
+		tracker = graph.makeActionTracker(context);
+		tracker.start();
+		context.awaitTermination();
+		index(tracker);
+
+		try {
+			while (true) {
+				var dirty = awaitChanges();
+				if (dirty.isEmpty())
+					continue;
+
+				tracker = graph.makeActionTracker(
+					context, dirty, goals, tracker
+				);
+				tracker.start();
+				context.awaitTermination();
+				index(tracker);
+			}
+		} catch (ClosedWatchServiceException ex) {
+			/* Watcher was closed. */
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		ws.close();
+	}
+
+	/*
+	 * Blocks until some watched file changes, then picks up whatever
+	 * other changes arrive in quick succession (editors and compilers
+	 * tend to touch several files at once) and returns operators
+	 * referencing any of the changed files.
+	 */
+	private LinkedHashSet<Operator> awaitChanges(
+	) throws InterruptedException {
+		var dirty = new LinkedHashSet<Operator>();
+		var key = ws.take();
+
+		while (key != null) {
+			var dir = (Path)key.watchable();
+			collect(dir, key, dirty);
+			if (!key.reset()) {
+				dirs.remove(dir);
+				pending.add(dir);
+			}
+			key = ws.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		if (!pending.isEmpty())
+			watchPending(dirty);
+
+		return dirty;
+	}
+
+	/*
+	 * Retries registration of directories which did not exist before.
+	 * Files could have been placed into a directory before it got
+	 * registered, so users of all files in newly registered directories
+	 * are considered dirty.
+	 */
+	private void watchPending(Set<Operator> dirty) {
+		for (var dir: new ArrayList<>(pending)) {
+			try {
+				watch(dir);
+			} catch (IOException ex) {
+				continue;
+			}
+
+			if (pending.contains(dir))
+				continue;
+
+			users.forEach((p, ops) -> {
+				if (dir.equals(p.getParent()))
+					dirty.addAll(ops);
+			});
+		}
+	}
+
+	private void collect(Path dir, WatchKey key, Set<Operator> dirty) {
+		for (var ev: key.pollEvents()) {
+			if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+				users.values().forEach(dirty::addAll);
+				continue;
+			}
+
+			var ops = users.get(dir.resolve((Path)ev.context()));
+			if (ops != null)
+				dirty.addAll(ops);
+		}
+	}
+
+	/*
+	 * Only source files are watched, so that the build does not keep
+	 * triggering itself. Files provided by operators without requisites
+	 * (such as FileExists) are sources; the providing operators are
+	 * counted among the users of such files, so as to be re-applied
+	 * along with the consumers. Products of all other operators are
+	 * made by the build.
+	 */
+	private void index(ActionTracker at) throws IOException {
+		var builders = new HashSet<Operator>();
+		at.forEachRequisite((op, m) -> builders.add(op));
+
+		var sources = new ArrayList<Map.Entry<Path, Operator>>();
+		at.forEachProduct((op, m) -> {
+			if (!(m instanceof Node))
+				return;
+
+			if (builders.contains(op))
+				made.add(pathOf(m));
+			else
+				sources.add(Map.entry(pathOf(m), op));
+		});
+
+		at.forEachRequisite((op, m) -> {
+			if (m instanceof Node)
+				sources.add(Map.entry(pathOf(m), op));
+		});
+
+		var nodes = new ArrayList<Path>();
+		for (var e: sources) {
+			var p = e.getKey();
+			if (made.contains(p))
+				continue;
+
+			users.computeIfAbsent(
+				p, k -> new HashSet<>()
+			).add(e.getValue());
+			nodes.add(p);
+		}
+
+		for (var p: nodes) {
+			var dir = p.getParent();
+			if (dir != null && !dirs.containsKey(dir))
+				watch(dir);
+		}
+	}
+
+	/*
+	 * Registers the directory with the watch service. A directory yet to
+	 * be made is kept pending, with its nearest existing ancestor being
+	 * watched instead, so that its creation gets noticed.
+	 */
+	private void watch(Path dir) throws IOException {
+		for (var d = dir; d != null; d = d.getParent()) {
+			if (!dirs.containsKey(d)) {
+				try {
+					dirs.put(d, register(d));
+				} catch (NoSuchFileException ex) {
+					continue;
+				}
+			}
+
+			if (d.equals(dir))
+				pending.remove(dir);
+			else
+				pending.add(dir);
+
+			return;
+		}
+	}
+
+	private WatchKey register(Path dir) throws IOException {
+		return dir.register(
+			ws,
+			StandardWatchEventKinds.ENTRY_CREATE,
+			StandardWatchEventKinds.ENTRY_MODIFY,
+			StandardWatchEventKinds.ENTRY_DELETE
+		);
+	}
+
+	private static Path pathOf(Mark m) {
+		return ((Node)m).path().toAbsolutePath().normalize();
+	}
+
+	private static final long SETTLE_MILLIS = 5;
+
+	private final Context context;
+	private final OpGraph graph;
+	private final Collection<Operator> goals;
+	private final WatchService ws;
+	private final HashMap<
+		Path, HashSet<Operator>
+	> users = new HashMap<>();
+	private final HashSet<Path> made = new HashSet<>();
+	private final HashMap<Path, WatchKey> dirs = new HashMap<>();
+	private final HashSet<Path> pending = new HashSet<>();
+	private ActionTracker tracker;
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core.lib.fs.marks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+
+import temulg.yzr.basis.HashCode64;
+
+/**
+ * DigestCache computes 64 bit content digests of files and remembers them
+ * by file identity (device and inode, or path where the file system has no
+ * such thing), along with size and modification time, so that every
+ * version of a file is only hashed once.
+ *
+ * Only the latest version of every file is remembered, and the number of
+ * files remembered is bounded: once over capacity, a quarter of entries
+ * (arbitrary ones) is dropped.
+ *
+ * A file rewritten within the same tick of the file system clock keeps its
+ * modification time, so a digest is only remembered if the file was last
+ * modified at least a tick before it was hashed ("racy clean" files are
+ * hashed again every time).
+ */
+public class DigestCache {
+	public DigestCache(int capacity_) {
+		if (capacity_ < 1)
+			throw new IllegalArgumentException(
+				"Capacity must be positive"
+			);
+
+		capacity = capacity_;
+	}
+
+	public static DigestCache shared() {
+		return SHARED;
+	}
+
+	public long digest(Path path) throws IOException {
+		var attrs = Files.readAttributes(
+			path, BasicFileAttributes.class
+		);
+		var id = attrs.fileKey() != null
+			? attrs.fileKey() : path.toAbsolutePath();
+		var e = digests.get(id);
+		if (e != null && e.matches(attrs))
+			return e.digest;
+
+		var hashedAt = Instant.now();
+		e = new Entry(attrs, compute(path, attrs.size()));
+
+		/*
+		 * The file may have been modified while it was being hashed;
+		 * only keep the digest if its stat remains the same.
+		 */
+		if (!racy(e.mtime, hashedAt) && e.matches(Files.readAttributes(
+			path, BasicFileAttributes.class
+		))) {
+			digests.put(id, e);
+			if (digests.size() > capacity)
+				evict();
+		}
+
+		return e.digest;
+	}
+
+	public void clear() {
+		digests.clear();
+	}
+
+	public int size() {
+		return digests.size();
+	}
+
+	private void evict() {
+		var it = digests.keySet().iterator();
+		for (
+			var count = digests.size() - capacity * 3 / 4;
+			count > 0 && it.hasNext(); count--
+		) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/*
+	 * Time stamps with no sub-second part suggest a file system with
+	 * coarse (up to 2 seconds) granularity; otherwise the granularity is
+	 * that of the kernel clock tick.
+	 */
+	private static boolean racy(Instant mtime, Instant hashedAt) {
+		var tick = mtime.getNano() != 0 ? FINE_TICK : COARSE_TICK;
+		return !mtime.plus(tick).isBefore(hashedAt);
+	}
+
+	private static long compute(Path path, long size) throws IOException {
+		try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (size <= SMALL_FILE_SIZE) {
+				var b = ByteBuffer.allocate((int)size);
+				while (b.hasRemaining()) {
+					if (ch.read(b) < 0)
+						break;
+				}
+
+				return HashCode64.of(b.flip());
+			}
+
+			var s = new HashCode64.Stream();
+			for (long pos = 0; pos < size; pos += MAP_CHUNK_SIZE) {
+				s.update(ch.map(
+					FileChannel.MapMode.READ_ONLY, pos,
+					Math.min(MAP_CHUNK_SIZE, size - pos)
+				));
+			}
+
+			return s.digest();
+		}
+	}
+
+	private static class Entry {
+		Entry(BasicFileAttributes attrs, long digest_) {
+			size = attrs.size();
+			mtime = attrs.lastModifiedTime().toInstant();
+			digest = digest_;
+		}
+
+		boolean matches(BasicFileAttributes attrs) {
+			return size == attrs.size() && mtime.equals(
+				attrs.lastModifiedTime().toInstant()
+			);
+		}
+
+		private final long size;
+		private final Instant mtime;
+		private final long digest;
+	}
+
+	/*
+	 * Mapping a file is considerably more expensive than reading a few
+	 * pages of it.
+	 */
+	private static final long SMALL_FILE_SIZE = 16384;
+	private static final long MAP_CHUNK_SIZE = 1L << 30;
+	private static final Duration FINE_TICK = Duration.ofMillis(10);
+	private static final Duration COARSE_TICK = Duration.ofSeconds(2);
+
+	private static final DigestCache SHARED = new DigestCache(1 << 20);
+
+	private final int capacity;
+	private final ConcurrentHashMap<
+		Object, Entry
+	> digests = new ConcurrentHashMap<>();
+}
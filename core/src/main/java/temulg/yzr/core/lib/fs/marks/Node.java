@@ -6,29 +6,125 @@
 
 package temulg.yzr.core.lib.fs.marks;
 
+import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
+import java.util.Optional;
+import java.util.OptionalLong;
 
+import temulg.yzr.core.ActionCache;
 import temulg.yzr.core.Entity;
+import temulg.yzr.core.FlightEvents;
 import temulg.yzr.core.Mark;
 import temulg.yzr.core.UncheckExceptions;
 
-public class Node extends Entity implements Mark {
+public class Node extends Entity implements Mark, ActionCache.Storable {
 	public static Node of(String path) {
-		return new Node(FileSystems.getDefault().getPath(path));
+		return new Node(FileSystems.getDefault().getPath(path), false);
 	}
 
-	private Node(Path path_) {
+	/**
+	 * Makes a node, whose freshness is decided by content digest rather
+	 * than by modification time alone. Rewriting such a file with the
+	 * same contents does not invalidate its dependents.
+	 */
+	public static Node withDigest(String path) {
+		return new Node(FileSystems.getDefault().getPath(path), true);
+	}
+
+	private Node(Path path_, boolean useDigest_) {
 		path = path_;
+		useDigest = useDigest_;
+	}
+
+	public Path path() {
+		return path;
 	}
 
 	public Instant lastModifiedTime() {
-		return UncheckExceptions.of(() ->
-			Files.getLastModifiedTime(path).toInstant()
-		);
+		return UncheckExceptions.of(() -> stat());
+	}
+
+	@Override
+	public Optional<Instant> lastModified() {
+		try {
+			return Optional.of(stat());
+		} catch (NoSuchFileException ex) {
+			return Optional.empty();
+		} catch (IOException ex) {
+			return UncheckExceptions.of(() -> {
+				throw ex;
+			});
+		}
+	}
+
+	private Instant stat() throws IOException {
+		var ev = new FlightEvents.FileStat();
+		ev.begin();
+
+		try {
+			var t = Files.getLastModifiedTime(path).toInstant();
+			ev.exists = true;
+			return t;
+		} finally {
+			if (ev.shouldCommit()) {
+				ev.path = path.toString();
+				ev.commit();
+			}
+		}
+	}
+
+	@Override
+	public String key() {
+		return KEY_PREFIX + path.toAbsolutePath();
 	}
 
+	@Override
+	public String toString() {
+		return path.toString();
+	}
+
+	@Override
+	public OptionalLong digest() {
+		if (!useDigest)
+			return OptionalLong.empty();
+
+		try {
+			return OptionalLong.of(
+				DigestCache.shared().digest(path)
+			);
+		} catch (NoSuchFileException ex) {
+			return OptionalLong.empty();
+		} catch (IOException ex) {
+			return UncheckExceptions.of(() -> {
+				throw ex;
+			});
+		}
+	}
+
+	@Override
+	public void saveTo(Path dst) throws IOException {
+		Files.copy(path, dst, StandardCopyOption.COPY_ATTRIBUTES);
+	}
+
+	@Override
+	public void restoreFrom(Path src) throws IOException {
+		var dir = path.toAbsolutePath().getParent();
+		if (dir != null)
+			Files.createDirectories(dir);
+
+		Files.copy(src, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Keys of nodes are their absolute paths, prefixed with this.
+	 */
+	public static final String KEY_PREFIX = "file:";
+
 	private final Path path;
+	private final boolean useDigest;
 }
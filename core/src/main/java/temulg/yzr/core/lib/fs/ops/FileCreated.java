@@ -6,35 +6,72 @@
 
 package temulg.yzr.core.lib.fs.ops;
 
-import java.time.Instant;
-
 import temulg.yzr.core.Entity;
 import temulg.yzr.core.MarkPack;
 import temulg.yzr.core.MarkPackSimple;
 import temulg.yzr.core.Operator;
+import temulg.yzr.core.PackSelector;
+import temulg.yzr.core.ProdPack;
+import temulg.yzr.core.ReqPack;
+import temulg.yzr.core.Resources;
 import temulg.yzr.core.lib.fs.marks.Node;
 
+/**
+ * Checks that a file made by some other action, normally fed in as the
+ * only requisite selected by {@link #REQUISITE}, exists. The file is
+ * given upfront, so that the operator has a stable signature.
+ */
 public class FileCreated extends Entity implements Operator {
+	public FileCreated(Node node_) {
+		node = node_;
+		signature = FileCreated.class.getName() + ":" + node.key();
+	}
+
 	@Override
-	public MarkPack newRequisites() {
-		return MarkPackSimple.builder().positionalCount(1).build();
+	public String signature() {
+		return signature;
 	}
 
 	@Override
-	public MarkPack newProducts() {
-		return MarkPack.EMPTY;
+	public ReqPack newRequisites() {
+		var p = MarkPackSimple.builder().positionalCount(1).build();
+		p.put(0, node);
+		return p;
+	}
+
+	@Override
+	public ProdPack newProducts() {
+		return MarkPackSimple.builder().build();
+	}
+
+	@Override
+	public boolean ioBound() {
+		return true;
+	}
+
+	@Override
+	public Resources resources() {
+		return Resources.NONE;
 	}
 
 	@Override
 	public void apply(
-		Operator.Action act, MarkPack requisites, MarkPack products
+		Operator.Action act, ReqPack.Storage requisites,
+		ProdPack.Storage products
 	) {
 		try {
 			act.productsUpdated(
-				requisites.<Node>get(0).lastModifiedTime()
+				((MarkPack)requisites).<Node>get(0)
+					.lastModifiedTime()
 			);
 		} catch (Exception ex) {
 			act.failed(ex);
 		}
 	}
+
+	public static final PackSelector REQUISITE
+	= PackSelector.positional(0);
+
+	private final Node node;
+	private final String signature;
 }
@@ -6,36 +6,70 @@
 
 package temulg.yzr.core.lib.fs.ops;
 
-import temulg.yzr.core.Operator;
-import temulg.yzr.core.lib.fs.marks.Node;
-
-import java.time.Instant;
-
 import temulg.yzr.core.Entity;
 import temulg.yzr.core.MarkPack;
 import temulg.yzr.core.MarkPackSimple;
+import temulg.yzr.core.Operator;
+import temulg.yzr.core.PackSelector;
+import temulg.yzr.core.ProdPack;
+import temulg.yzr.core.ReqPack;
+import temulg.yzr.core.Resources;
+import temulg.yzr.core.lib.fs.marks.Node;
 
+/**
+ * Provides an existing file as the only product, selected by {@link
+ * #PRODUCT}.
+ */
 public class FileExists extends Entity implements Operator {
+	public FileExists(Node node_) {
+		node = node_;
+		signature = FileExists.class.getName() + ":" + node.key();
+	}
+
+	@Override
+	public String signature() {
+		return signature;
+	}
+
+	@Override
+	public ReqPack newRequisites() {
+		return MarkPackSimple.builder().build();
+	}
+
 	@Override
-	public MarkPack newRequisites() {
-		return MarkPack.EMPTY;
+	public ProdPack newProducts() {
+		var p = MarkPackSimple.builder().positionalCount(1).build();
+		p.put(0, node);
+		return p;
 	}
 
 	@Override
-	public MarkPack newProducts() {
-		return MarkPackSimple.builder().positionalCount(1).build();
+	public boolean ioBound() {
+		return true;
+	}
+
+	@Override
+	public Resources resources() {
+		return Resources.NONE;
 	}
 
 	@Override
 	public void apply(
-		Operator.Action act, MarkPack requisites, MarkPack products
+		Operator.Action act, ReqPack.Storage requisites,
+		ProdPack.Storage products
 	) {
 		try {
 			act.productsUpdated(
-				products.<Node>get(0).lastModifiedTime()
+				((MarkPack)products).<Node>get(0)
+					.lastModifiedTime()
 			);
 		} catch (Exception ex) {
 			act.failed(ex);
 		}
 	}
+
+	public static final PackSelector PRODUCT = PackSelector.positional(0);
+
+	private final Node node;
+	private final String signature;
 }
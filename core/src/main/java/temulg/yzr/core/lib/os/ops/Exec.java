@@ -8,35 +8,135 @@ package temulg.yzr.core.lib.os.ops;
 
 import temulg.yzr.core.Operator;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
 
 import temulg.yzr.core.Entity;
+import temulg.yzr.core.Mark;
 import temulg.yzr.core.MarkPack;
 import temulg.yzr.core.MarkPackSimple;
+import temulg.yzr.core.ProdPack;
+import temulg.yzr.core.ReqPack;
+import temulg.yzr.core.lib.fs.marks.Node;
 
+/**
+ * Runs a process, with command line made of literal arguments and of
+ * requisite and product marks (file nodes standing for their paths), in
+ * the order they are added to the builder. Requisites and products are
+ * selected by their names or by their positions among requisites and
+ * products respectively, as per {@link temulg.yzr.core.PackSelector}.
+ *
+ * Signature of the operator covers the command line (with requisites
+ * standing for their slots), explicitly set environment variables and
+ * working directory; environment inherited from yzr itself is not taken
+ * into account.
+ */
 public class Exec extends Entity implements Operator {
 	@Override
-	public MarkPack newRequisites() {
+	public String signature() {
+		return signature;
+	}
+
+	/**
+	 * Command given as a literal argument is looked up the way the
+	 * process would be started (relative to the working directory if it
+	 * has a slash in it, along PATH otherwise). Commands coming from
+	 * requisites are covered by those.
+	 */
+	@Override
+	public Mark tool() {
+		var t = tool;
+		if (t == null && !args.isEmpty() && args.get(0) != null)
+			tool = t = findTool(args.get(0));
+
+		return t;
+	}
+
+	private Node findTool(String cmd) {
+		if (cmd.indexOf('/') >= 0) {
+			var p = dir != null ? dir.resolve(cmd) : Paths.get(cmd);
+			return Node.withDigest(p.toString());
+		}
+
+		var path = env.containsKey("PATH")
+			? env.get("PATH") : System.getenv("PATH");
+		if (path != null) {
+			for (var d: path.split(File.pathSeparator)) {
+				var p = Paths.get(d.isEmpty() ? "." : d, cmd);
+				if (Files.isExecutable(p))
+					return Node.withDigest(p.toString());
+			}
+		}
+
+		/* Not found; has no digest, hence is never cached. */
+		return Node.of(cmd);
+	}
+
+	@Override
+	public ReqPack newRequisites() {
 		return preparePack(reqs);
 	}
 
 	@Override
-	public MarkPack newProducts() {
+	public ProdPack newProducts() {
 		return preparePack(prods);
 	}
 
+	@Override
+	public boolean ioBound() {
+		return true;
+	}
+
 	@Override
 	public void apply(
-		Operator.Action act, MarkPack requisites, MarkPack products
+		Operator.Action act, ReqPack.Storage requisites,
+		ProdPack.Storage products
 	) {
 		try {
-			
+			var argv = args.toArray(new String[args.size()]);
+			fillArgv(argv, reqs, (MarkPack)requisites);
+			fillArgv(argv, prods, (MarkPack)products);
+
+			var pb = new ProcessBuilder(argv).inheritIO();
+			pb.environment().putAll(env);
+			if (dir != null)
+				pb.directory(dir.toFile());
+
+			var rc = act.context().runProcess(act, pb);
+			if (rc != 0)
+				throw new IllegalStateException(
+					argv[0] + " exited with code " + rc
+				);
+
+			act.productsUpdated(Instant.now());
 		} catch (Exception ex) {
 			act.failed(ex);
 		}
 	}
 
-	private static MarkPack preparePack(ArrayList<Selector> ss) {
+	private static void fillArgv(
+		String[] argv, ArrayList<Selector> ss, MarkPack pack
+	) {
+		int pos = 0;
+		for (var s: ss) {
+			Mark m = pack.get(pos++);
+			argv[s.argvPos] = argument(m);
+		}
+	}
+
+	private static String argument(Mark m) {
+		return m instanceof Node
+			? ((Node)m).path().toString()
+			: String.valueOf(m);
+	}
+
+	private static MarkPackSimple preparePack(ArrayList<Selector> ss) {
 		var b = MarkPackSimple.builder().positionalCount(ss.size());
 
 		int pos = 0;
@@ -46,7 +146,46 @@ public class Exec extends Entity implements Operator {
 
 			pos++;
 		}
-		return b.build();
+
+		var p = b.build();
+		pos = 0;
+		for (var s: ss)
+			p.put(pos++, s.mark);
+
+		return p;
+	}
+
+	/*
+	 * Parts of the signature are length prefixed, so that no choice of
+	 * arguments can make two different operators look the same.
+	 */
+	private String makeSignature() {
+		var sb = new StringBuilder(Exec.class.getName());
+		var slots = new String[args.size()];
+
+		for (var s: reqs)
+			slots[s.argvPos] = "r" + (s.name != null ? s.name : "");
+
+		for (var s: prods) {
+			var key = s.mark.key();
+			slots[s.argvPos] = "p" + (
+				key != null ? key : argument(s.mark)
+			);
+		}
+
+		for (int pos = 0; pos < slots.length; pos++)
+			appendPart(sb, slots[pos] != null
+				? slots[pos] : "a" + args.get(pos));
+
+		env.forEach((k, v) -> appendPart(sb, "e" + k + "=" + v));
+		if (dir != null)
+			appendPart(sb, "d" + dir.toAbsolutePath());
+
+		return sb.toString();
+	}
+
+	private static void appendPart(StringBuilder sb, String part) {
+		sb.append(':').append(part.length()).append(':').append(part);
 	}
 
 	public static Builder builder() {
@@ -54,33 +193,50 @@ public class Exec extends Entity implements Operator {
 	}
 
 	private static class Selector {
-		Selector(int pos, String name_) {
+		Selector(int pos, String name_, Mark mark_) {
 			argvPos = pos;
 			name = name_;
+			mark = mark_;
 		}
 
 		private final int argvPos;
 		private final String name;
+		private final Mark mark;
 	}
 
 	public static class Builder {
-		public Builder addRequisite() {
-			reqs.add(new Selector(argvPos++, null));
+		public Builder addArgument(String arg) {
+			args.add(arg);
 			return this;
 		}
 
+		public Builder addRequisite() {
+			return addRequisite(null);
+		}
+
 		public Builder addRequisite(String name) {
-			reqs.add(new Selector(argvPos++, name));
+			reqs.add(new Selector(args.size(), name, null));
+			args.add(null);
+			return this;
+		}
+
+		public Builder addProduct(Mark m) {
+			return addProduct(null, m);
+		}
+
+		public Builder addProduct(String name, Mark m) {
+			prods.add(new Selector(args.size(), name, m));
+			args.add(null);
 			return this;
 		}
 
-		public Builder addProduct() {
-			prods.add(new Selector(argvPos++, null));
+		public Builder environment(String name, String value) {
+			env.put(name, value);
 			return this;
 		}
 
-		public Builder addProduct(String name) {
-			prods.add(new Selector(argvPos++, name));
+		public Builder directory(Path dir_) {
+			dir = dir_;
 			return this;
 		}
 
@@ -88,16 +244,27 @@ public class Exec extends Entity implements Operator {
 			return new Exec(this);
 		}
 
-		private int argvPos;
+		private final ArrayList<String> args = new ArrayList<>();
 		private final ArrayList<Selector> reqs = new ArrayList<>();
 		private final ArrayList<Selector> prods = new ArrayList<>();
+		private final TreeMap<String, String> env = new TreeMap<>();
+		private Path dir;
 	}
 
 	private Exec(Builder b) {
-		reqs = b.reqs;
-		prods = b.prods;
+		args = new ArrayList<>(b.args);
+		reqs = new ArrayList<>(b.reqs);
+		prods = new ArrayList<>(b.prods);
+		env = new TreeMap<>(b.env);
+		dir = b.dir;
+		signature = makeSignature();
 	}
 
+	private final ArrayList<String> args;
 	private final ArrayList<Selector> reqs;
 	private final ArrayList<Selector> prods;
+	private final Map<String, String> env;
+	private final Path dir;
+	private final String signature;
+	private volatile Node tool;
 }
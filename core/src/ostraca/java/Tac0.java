@@ -4,11 +4,8 @@
  * SPDX-License-Identifier: GPL-3.0-or-later
  */
 
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.TimeUnit;
-
+import temulg.yzr.core.Context;
 import temulg.yzr.core.OpGraph;
-import temulg.yzr.core.Operator;
 import temulg.yzr.core.PackSelector;
 import temulg.yzr.core.lib.fs.marks.Node;
 import temulg.yzr.core.lib.fs.ops.FileCreated;
@@ -33,31 +30,27 @@ public class Tac0 {
 
 		var op0 = Exec.builder().addRequisite(
 			"command"
-		).addRequisite().addProduct().build();
+		).addRequisite().addProduct(n2).build();
 
 		opg.Add(
-			new FileExists(), PackSelector.positional(0),
-			op0, PackSelector.named("command"),
-			n0
+			new FileExists(n0), FileExists.PRODUCT,
+			op0, PackSelector.named("command")
 		);
 		opg.Add(
-			new FileExists(), PackSelector.positional(0),
-			op0, PackSelector.positional(1),
-			n1
+			new FileExists(n1), FileExists.PRODUCT,
+			op0, PackSelector.positional(1)
 		);
 		opg.Add(
 			op0, PackSelector.positional(0),
-			new FileCreated(), PackSelector.positional(0),
-			n2
+			new FileCreated(n2), FileCreated.REQUISITE
 		);
 
 		System.out.println("-- Verify " + opg.verify());
 
 		var ctx = new Context();
 		var at = opg.makeActionTracker(ctx);
-		at.process();
+		at.start();
 		ctx.awaitTermination();
 		System.out.println("-- Done");
-		
 	}
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+import temulg.yzr.bench.Shapes;
+import temulg.yzr.core.Context;
+
+/**
+ * Deep chain benchmark: a single linear chain of no-op actions, which
+ * mostly measures the per-action overhead of handing control from an
+ * action to its only successor.
+ */
+public class Tac1 {
+	public static void main(String... args) {
+		int length = 100000;
+		int rounds = 20;
+
+		if (args.length > 0)
+			length = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			rounds = Integer.parseInt(args[1]);
+
+		var opg = Shapes.chain(length);
+		var ctx = new Context();
+		for (int round = 0; round < rounds; round++) {
+			var t0 = System.nanoTime();
+			var at = opg.makeActionTracker(ctx);
+			var t1 = System.nanoTime();
+			at.start();
+			ctx.awaitTermination();
+			var t2 = System.nanoTime();
+
+			System.out.format(
+				"-- round %d: setup %d, run %d ns/action%n",
+				round, (t1 - t0) / length, (t2 - t1) / length
+			);
+		}
+		ctx.shutdown();
+	}
+}
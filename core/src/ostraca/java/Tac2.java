@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import temulg.yzr.bench.Shapes;
+import temulg.yzr.core.Context;
+import temulg.yzr.core.OpGraph;
+import temulg.yzr.core.ProdPack;
+import temulg.yzr.core.ReqPack;
+import temulg.yzr.core.Resources;
+
+/**
+ * Stat heavy benchmark: a wide graph of actions, each checking
+ * modification time of a file, run with the default worker pool and in
+ * virtual thread mode.
+ *
+ * Optional latency (in microseconds) is added to every check to emulate
+ * a network file system.
+ */
+public class Tac2 {
+	public static void main(String... args) throws Exception {
+		int width = 100000;
+		long latency = 0;
+		int rounds = 5;
+
+		if (args.length > 0)
+			width = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			latency = Long.parseLong(args[1]);
+		if (args.length > 2)
+			rounds = Integer.parseInt(args[2]);
+
+		var dir = Files.createTempDirectory("tac2");
+		var files = new Path[1000];
+		for (int pos = 0; pos < files.length; pos++)
+			files[pos] = Files.createFile(dir.resolve("f" + pos));
+
+		var opg = new OpGraph();
+		var root = new Shapes.NoOp();
+		var sink = new Shapes.NoOp();
+		for (int pos = 0; pos < width; pos++) {
+			var op = new Stat(files[pos % files.length], latency);
+			opg.Add(root, Shapes.PACK, op, Shapes.PACK);
+			opg.Add(op, Shapes.PACK, sink, Shapes.PACK);
+		}
+
+		for (var vt: new boolean[] {false, true}) {
+			var ctx = Context.builder().virtualThreads(vt).build();
+
+			for (int round = 0; round < rounds; round++) {
+				var t0 = System.nanoTime();
+				var at = opg.makeActionTracker(ctx);
+				at.start();
+				ctx.awaitTermination();
+				var t1 = System.nanoTime();
+
+				System.out.format(
+					"-- %s round %d: %d ms%n",
+					vt ? "virtual" : "pool", round,
+					TimeUnit.NANOSECONDS.toMillis(t1 - t0)
+				);
+			}
+		}
+
+		for (var f: files)
+			Files.delete(f);
+		Files.delete(dir);
+	}
+
+	static class Stat extends Shapes.NoOp {
+		Stat(Path path_, long latency_) {
+			path = path_;
+			latency = latency_;
+		}
+
+		@Override
+		public boolean ioBound() {
+			return true;
+		}
+
+		@Override
+		public Resources resources() {
+			return Resources.NONE;
+		}
+
+		@Override
+		public void apply(
+			Action act, ReqPack.Storage requisites,
+			ProdPack.Storage products
+		) {
+			try {
+				if (latency > 0)
+					TimeUnit.MICROSECONDS.sleep(latency);
+
+				var t = Files.getLastModifiedTime(path);
+				act.productsUpdated(t.toInstant());
+			} catch (Exception ex) {
+				act.failed(ex);
+			}
+		}
+
+		private final Path path;
+		private final long latency;
+	}
+}
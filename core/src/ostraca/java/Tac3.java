@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import temulg.yzr.bench.Shapes;
+import temulg.yzr.core.BuildState;
+import temulg.yzr.core.Context;
+import temulg.yzr.core.Mark;
+import temulg.yzr.core.OpGraph;
+import temulg.yzr.core.ProdPack;
+import temulg.yzr.core.lib.fs.NullBuild;
+import temulg.yzr.core.lib.fs.marks.Node;
+
+/**
+ * Null build benchmark: a wide graph of actions, each with a file of its
+ * own for product, is built once; the time it takes to find out nothing
+ * has changed is then measured, along with that of a tracker run skipping
+ * every action.
+ */
+public class Tac3 {
+	public static void main(String... args) throws Exception {
+		int width = 100000;
+		int rounds = 5;
+
+		if (args.length > 0)
+			width = Integer.parseInt(args[0]);
+		if (args.length > 1)
+			rounds = Integer.parseInt(args[1]);
+
+		var dir = Files.createTempDirectory("tac3");
+		var files = new Path[width];
+		var opg = new OpGraph();
+		var root = new Shapes.NoOp() {
+			@Override
+			public String signature() {
+				return "tac3:root";
+			}
+		};
+
+		for (int pos = 0; pos < width; pos++) {
+			files[pos] = Files.createFile(dir.resolve("f" + pos));
+			opg.Add(
+				root, Shapes.PACK, new Made(files[pos]),
+				Shapes.PACK
+			);
+		}
+
+		try (var state = BuildState.open(dir.resolve("state"))) {
+			var ctx = Context.builder().buildState(state).build();
+			var at = opg.makeActionTracker(ctx);
+			at.start();
+			ctx.awaitTermination();
+
+			for (int round = 0; round < rounds; round++) {
+				var t0 = System.nanoTime();
+				var clean = NullBuild.upToDate(ctx, opg);
+				var t1 = System.nanoTime();
+				at = opg.makeActionTracker(ctx);
+				at.start();
+				ctx.awaitTermination();
+				var t2 = System.nanoTime();
+
+				System.out.format(
+					"-- round %d: null check %d ms (%s),"
+					+ " tracker %d ms%n", round,
+					TimeUnit.NANOSECONDS.toMillis(t1 - t0),
+					clean ? "clean" : "dirty",
+					TimeUnit.NANOSECONDS.toMillis(t2 - t1)
+				);
+			}
+
+			var f = files[width / 2];
+			Files.setLastModifiedTime(f, FileTime.fromMillis(
+				Files.getLastModifiedTime(f).toMillis() + 1000
+			));
+			System.out.format(
+				"-- touched: %s%n", NullBuild.upToDate(ctx, opg)
+				? "clean" : "dirty"
+			);
+		}
+
+		for (var f: files)
+			Files.delete(f);
+		Files.delete(dir.resolve("state"));
+		Files.delete(dir);
+	}
+
+	static class Made extends Shapes.NoOp {
+		Made(Path path) {
+			products = new NodePack(Node.of(path.toString()));
+			signature = "tac3:" + products.node.key();
+		}
+
+		@Override
+		public String signature() {
+			return signature;
+		}
+
+		@Override
+		public ProdPack newProducts() {
+			return products;
+		}
+
+		private final NodePack products;
+		private final String signature;
+	}
+
+	static class NodePack implements ProdPack, ProdPack.Storage,
+	ProdPack.Getter {
+		NodePack(Node node_) {
+			node = node_;
+		}
+
+		@Override
+		public ProdPack.Getter select(ProdPack.Selector sel) {
+			return this;
+		}
+
+		@Override
+		public NodePack allocate() {
+			return this;
+		}
+
+		@Override
+		public void forEach(Consumer<? super Mark> cons) {
+			cons.accept(node);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <M extends Mark> M get(ProdPack.Storage s) {
+			return (M)node;
+		}
+
+		private final Node node;
+	}
+}
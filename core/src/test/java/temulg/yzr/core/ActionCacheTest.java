@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Optional;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import temulg.yzr.core.lib.fs.marks.Node;
+import temulg.yzr.core.lib.os.ops.Exec;
+
+public class ActionCacheTest {
+	private static void removeTree(Path dir) throws Exception {
+		try (var s = Files.walk(dir)) {
+			s.sorted(Comparator.reverseOrder()).forEach(
+				p -> p.toFile().delete()
+			);
+		}
+	}
+
+	@Test
+	public void toolKeyed() throws Exception {
+		var dir = Files.createTempDirectory("yzr-cache");
+		var tool = Files.writeString(
+			dir.resolve("tool"), "#!/bin/sh\n"
+		);
+		Files.setPosixFilePermissions(
+			tool, PosixFilePermissions.fromString("rwxr-xr-x")
+		);
+		var src = Files.writeString(dir.resolve("src"), "a");
+		var cache = ActionCache.open(dir.resolve("cache"), 1 << 20);
+
+		var op = Exec.builder().addArgument(
+			tool.toString()
+		).addRequisite().addProduct(
+			Node.of(dir.resolve("dst").toString())
+		).build();
+		var reqs = op.newRequisites().allocate();
+		op.newRequisites().select(
+			PackSelector.positional(0)
+		).set(reqs, Node.withDigest(src.toString()));
+
+		var k0 = cache.key(op, reqs);
+		Assert.assertNotNull(k0);
+		Assert.assertEquals(cache.key(op, reqs), k0);
+
+		Files.writeString(tool, "#!/bin/sh\nexit 0\n");
+		var k1 = cache.key(op, reqs);
+		Assert.assertNotNull(k1);
+		Assert.assertNotEquals(k1, k0);
+
+		var missing = Exec.builder().addArgument(
+			"yzr-no-such-tool"
+		).build();
+		Assert.assertNull(cache.key(
+			missing, missing.newRequisites().allocate()
+		));
+
+		removeTree(dir);
+	}
+
+	private static MarkPackSimple products(
+		Path out, int size
+	) throws Exception {
+		Files.write(out, new byte[size]);
+		var prods = MarkPackSimple.builder().positionalCount(1).build();
+		prods.put(0, Node.of(out.toString()));
+		return prods;
+	}
+
+	private static long entriesSize(Path cache) throws Exception {
+		try (var s = Files.walk(cache.resolve("entries"))) {
+			return s.filter(Files::isRegularFile).mapToLong(
+				p -> p.toFile().length()
+			).sum();
+		}
+	}
+
+	private static void assertStagingEmpty(Path cache) throws Exception {
+		try (var s = Files.list(cache.resolve("staging"))) {
+			Assert.assertEquals(s.count(), 0L);
+		}
+	}
+
+	/*
+	 * Another build publishing the same entry while this one is saving
+	 * products makes the final rename fail with ENOTEMPTY.
+	 */
+	@Test
+	public void storeRacing() throws Exception {
+		var dir = Files.createTempDirectory("yzr-cache");
+		var cache = dir.resolve("cache");
+		var out = dir.resolve("out");
+		var c0 = ActionCache.open(cache, 1 << 20);
+		var c1 = ActionCache.open(cache, 1 << 20);
+		var other = products(out, 1);
+
+		var prods = MarkPackSimple.builder().positionalCount(1).build();
+		prods.put(0, new Racing(() -> c1.store("k", other)));
+		c0.store("k", prods);
+
+		Assert.assertTrue(
+			Files.isDirectory(cache.resolve("entries/k"))
+		);
+		Assert.assertEquals(
+			Files.size(cache.resolve("entries/k/0")), 1L
+		);
+		assertStagingEmpty(cache);
+
+		Files.delete(out);
+		Assert.assertTrue(c0.restore("k", other));
+		Assert.assertEquals(Files.size(out), 1L);
+
+		removeTree(dir);
+	}
+
+	/* Entries used least recently go first. */
+	@Test
+	public void evictionOrder() throws Exception {
+		var dir = Files.createTempDirectory("yzr-cache");
+		var cache = dir.resolve("cache");
+		var c = ActionCache.open(cache, 3500);
+		var now = System.currentTimeMillis();
+
+		for (var k: new String[] {"k0", "k1", "k2"}) {
+			c.store(k, products(dir.resolve(k), 1000));
+			Files.setLastModifiedTime(
+				cache.resolve("entries").resolve(k),
+				FileTime.fromMillis(now - 60000)
+			);
+		}
+
+		Files.setLastModifiedTime(
+			cache.resolve("entries/k2"),
+			FileTime.fromMillis(now - 30000)
+		);
+		Assert.assertTrue(
+			c.restore("k0", products(dir.resolve("k0"), 0))
+		);
+		c.store("k3", products(dir.resolve("k3"), 1000));
+
+		for (var k: new String[] {"k0", "k2", "k3"})
+			Assert.assertTrue(Files.isDirectory(
+				cache.resolve("entries").resolve(k)
+			));
+
+		Assert.assertFalse(Files.exists(cache.resolve("entries/k1")));
+		Assert.assertEquals(entriesSize(cache), 3000L);
+		assertStagingEmpty(cache);
+
+		removeTree(dir);
+	}
+
+	@Test
+	public void withinBudget() throws Exception {
+		var dir = Files.createTempDirectory("yzr-cache");
+		var cache = dir.resolve("cache");
+		var c = ActionCache.open(cache, 5000);
+
+		for (int pos = 0; pos < 20; pos++) {
+			c.store("k" + pos, products(dir.resolve("out"), 700));
+			Assert.assertTrue(entriesSize(cache) <= 5000);
+		}
+
+		Assert.assertTrue(entriesSize(cache) > 0);
+		removeTree(dir);
+	}
+
+	/*
+	 * The eviction lock being held by another instance of the same
+	 * process makes eviction skip, rather than fail.
+	 */
+	@Test
+	public void evictionLockHeld() throws Exception {
+		var dir = Files.createTempDirectory("yzr-cache");
+		var cache = dir.resolve("cache");
+		var c = ActionCache.open(cache, 1000);
+
+		try (var ch = FileChannel.open(
+			cache.resolve("lock"), StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE
+		)) {
+			var lock = ch.lock();
+			c.store("k0", products(dir.resolve("out"), 800));
+			c.store("k1", products(dir.resolve("out"), 800));
+			Assert.assertEquals(entriesSize(cache), 1600L);
+			lock.release();
+		}
+
+		c.store("k2", products(dir.resolve("out"), 800));
+		Assert.assertTrue(entriesSize(cache) <= 1000);
+
+		removeTree(dir);
+	}
+
+	/* Storable mark running some action before saving itself. */
+	private static class Racing extends Entity
+	implements Mark, ActionCache.Storable {
+		Racing(Runnable before_) {
+			before = before_;
+		}
+
+		@Override
+		public Optional<Instant> lastModified() {
+			return Optional.of(Instant.EPOCH);
+		}
+
+		@Override
+		public void saveTo(Path dst) throws IOException {
+			before.run();
+			Files.write(dst, new byte[2]);
+		}
+
+		@Override
+		public void restoreFrom(Path src) {
+		}
+
+		private final Runnable before;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import temulg.yzr.core.lib.fs.NullBuild;
+import temulg.yzr.core.lib.fs.marks.Node;
+import temulg.yzr.core.lib.fs.ops.FileCreated;
+import temulg.yzr.core.lib.fs.ops.FileExists;
+import temulg.yzr.core.lib.os.ops.Exec;
+
+public class BuildStateTest {
+	/* Runs the graph once, telling which operators were skipped. */
+	private static Map<Operator, Boolean> build(
+		OpGraph opg, Path stateFile
+	) {
+		var skipped = new ConcurrentHashMap<Operator, Boolean>();
+
+		try (var state = BuildState.open(stateFile)) {
+			var ctx = Context.builder().buildState(state).probe((
+				op, ready, dispatched, started, finished,
+				thread, skip
+			) -> skipped.put(op, skip)).build();
+
+			opg.makeActionTracker(ctx).start();
+			ctx.awaitTermination();
+		}
+
+		return skipped;
+	}
+
+	private static boolean upToDate(OpGraph opg, Path stateFile) {
+		try (var state = BuildState.open(stateFile)) {
+			return NullBuild.upToDate(
+				Context.builder().buildState(state).build(), opg
+			);
+		}
+	}
+
+	/* Moves modification time well past the file system granularity. */
+	private static void touch(Path p) throws Exception {
+		Files.setLastModifiedTime(p, FileTime.fromMillis(
+			Files.getLastModifiedTime(p).toMillis() + 1000
+		));
+	}
+
+	private static OpGraph copyGraph(Path src, Path dst) {
+		var in = new FileExists(Node.of(src.toString()));
+		var cp = Exec.builder().addArgument("cp").addRequisite(
+		).addProduct(Node.of(dst.toString())).build();
+		var out = new FileCreated(Node.of(dst.toString()));
+
+		var opg = new OpGraph();
+		opg.Add(in, FileExists.PRODUCT, cp, PackSelector.positional(0));
+		opg.Add(
+			cp, PackSelector.positional(0),
+			out, FileCreated.REQUISITE
+		);
+		return opg;
+	}
+
+	@Test
+	public void skipsUnchanged() throws Exception {
+		var dir = Files.createTempDirectory("yzr-state");
+		var src = Files.writeString(dir.resolve("src.txt"), "a");
+		var dst = dir.resolve("dst.txt");
+		var stateFile = dir.resolve("state");
+
+		var in = new FileExists(Node.of(src.toString()));
+		var cp = Exec.builder().addArgument("cp").addRequisite(
+		).addProduct(Node.of(dst.toString())).build();
+		var out = new FileCreated(Node.of(dst.toString()));
+
+		var opg = new OpGraph();
+		opg.Add(in, FileExists.PRODUCT, cp, PackSelector.positional(0));
+		opg.Add(
+			cp, PackSelector.positional(0),
+			out, FileCreated.REQUISITE
+		);
+
+		var first = build(opg, stateFile);
+		Assert.assertEquals(first, Map.of(
+			in, false, cp, false, out, false
+		));
+		Assert.assertEquals(Files.readString(dst), "a");
+
+		var second = build(opg, stateFile);
+		Assert.assertEquals(second, Map.of(
+			in, true, cp, true, out, true
+		));
+
+		Files.writeString(src, "b");
+		touch(src);
+
+		var third = build(opg, stateFile);
+		Assert.assertEquals(third, Map.of(
+			in, false, cp, false, out, false
+		));
+		Assert.assertEquals(Files.readString(dst), "b");
+
+		for (var f: new Path[] {src, dst, stateFile})
+			Files.delete(f);
+		Files.delete(dir);
+	}
+
+	/* Signatures only depend on the configuration of operators. */
+	@Test
+	public void stableSignatures() throws Exception {
+		var n = Node.of("a/b");
+		Assert.assertEquals(
+			new FileExists(n).signature(),
+			new FileExists(Node.of("a/b")).signature()
+		);
+		Assert.assertNotEquals(
+			new FileExists(n).signature(),
+			new FileCreated(n).signature()
+		);
+
+		var e0 = Exec.builder().addArgument("cc").addRequisite(
+		).addProduct(n).environment("LANG", "C");
+		var e1 = Exec.builder().addArgument("cc").addRequisite(
+		).addProduct(n).environment("LANG", "C");
+		Assert.assertEquals(
+			e0.build().signature(), e1.build().signature()
+		);
+		Assert.assertNotEquals(
+			e0.build().signature(),
+			e1.environment("LANG", "en").build().signature()
+		);
+		Assert.assertNotEquals(
+			Exec.builder().addArgument("a b").build().signature(),
+			Exec.builder().addArgument("a").addArgument(
+				"b"
+			).build().signature()
+		);
+	}
+
+	/*
+	 * Records of operators no longer in the graph do not affect the null
+	 * build check, even if their files are gone.
+	 */
+	@Test
+	public void nullBuildIgnoresStale() throws Exception {
+		var dir = Files.createTempDirectory("yzr-state");
+		var src0 = Files.writeString(dir.resolve("src0.txt"), "a");
+		var src1 = Files.writeString(dir.resolve("src1.txt"), "b");
+		var dst = dir.resolve("dst.txt");
+		var stateFile = dir.resolve("state");
+
+		build(copyGraph(src0, dst), stateFile);
+		touch(src1);
+		var opg = copyGraph(src1, dst);
+		Assert.assertFalse(upToDate(opg, stateFile));
+
+		build(opg, stateFile);
+		Files.delete(src0);
+		Assert.assertTrue(upToDate(opg, stateFile));
+
+		touch(src1);
+		Assert.assertFalse(upToDate(opg, stateFile));
+
+		for (var f: new Path[] {src1, dst, stateFile})
+			Files.delete(f);
+		Files.delete(dir);
+	}
+
+	/*
+	 * Record changes saved by the store on its own (here, on close)
+	 * carry the summary along, even without a commit.
+	 */
+	@Test
+	public void nullBuildUncommitted() throws Exception {
+		var dir = Files.createTempDirectory("yzr-state");
+		var src = Files.writeString(dir.resolve("src.txt"), "a");
+		var dst = dir.resolve("dst.txt");
+		var stateFile = dir.resolve("state");
+		var opg = copyGraph(src, dst);
+
+		build(opg, stateFile);
+		Assert.assertTrue(upToDate(opg, stateFile));
+
+		try (var state = BuildState.open(stateFile)) {
+			opg.forEachOperator(op -> {
+				if (op instanceof Exec)
+					state.forget(op);
+			});
+		}
+
+		try (var state = BuildState.open(stateFile)) {
+			Assert.assertFalse(state.recordsExactly(opg));
+		}
+		Assert.assertFalse(upToDate(opg, stateFile));
+
+		for (var f: new Path[] {src, dst, stateFile})
+			Files.delete(f);
+		Files.delete(dir);
+	}
+
+	/* Marks without a key can not be checked, so the graph is dirty. */
+	@Test
+	public void nullBuildUnkeyed() throws Exception {
+		var dir = Files.createTempDirectory("yzr-state");
+		var src = Files.writeString(dir.resolve("src.txt"), "a");
+		var stateFile = dir.resolve("state");
+
+		var in = new FileExists(Node.of(src.toString()));
+		var use = new UsesConstant();
+		var opg = new OpGraph();
+		opg.Add(
+			in, FileExists.PRODUCT, use, PackSelector.positional(0)
+		);
+
+		Assert.assertEquals(build(opg, stateFile), Map.of(
+			in, false, use, false
+		));
+		Assert.assertEquals(build(opg, stateFile), Map.of(
+			in, true, use, true
+		));
+		Assert.assertFalse(upToDate(opg, stateFile));
+
+		for (var f: new Path[] {src, stateFile})
+			Files.delete(f);
+		Files.delete(dir);
+	}
+
+	private static class Constant extends Entity implements Mark {
+		@Override
+		public Optional<Instant> lastModified() {
+			return Optional.of(Instant.EPOCH);
+		}
+	}
+
+	/* Takes a file and a preset mark without a key as requisites. */
+	private static class UsesConstant
+	extends Entity implements Operator {
+		@Override
+		public String signature() {
+			return UsesConstant.class.getName();
+		}
+
+		@Override
+		public ReqPack newRequisites() {
+			var p = MarkPackSimple.builder().positionalCount(
+				2
+			).build();
+			p.put(1, new Constant());
+			return p;
+		}
+
+		@Override
+		public ProdPack newProducts() {
+			return MarkPackSimple.builder().build();
+		}
+
+		@Override
+		public void apply(
+			Operator.Action act, ReqPack.Storage requisites,
+			ProdPack.Storage products
+		) {
+			act.productsUpdated(Instant.EPOCH);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class JobserverTest {
+	/*
+	 * Actions asking for more slots than there are to go around at once
+	 * would deadlock on partial grants.
+	 */
+	@Test(timeOut = 60000)
+	public void multiSlotContention() throws Exception {
+		try (var js = Jobserver.create(4)) {
+			var held = new AtomicInteger();
+			var peak = new AtomicInteger();
+			var start = new CyclicBarrier(4);
+			var workers = new Thread[4];
+			var failed = new AtomicInteger();
+
+			for (int pos = 0; pos < workers.length; pos++) {
+				workers[pos] = new Thread(() -> {
+					try {
+						start.await();
+						for (int i = 0; i < 200; i++) {
+							var g = js.acquire(3);
+							peak.accumulateAndGet(
+								held.addAndGet(3),
+								Math::max
+							);
+							held.addAndGet(-3);
+							js.release(g);
+						}
+					} catch (Exception ex) {
+						failed.incrementAndGet();
+					}
+				});
+				workers[pos].start();
+			}
+
+			for (var w: workers)
+				w.join();
+
+			Assert.assertEquals(failed.get(), 0);
+			Assert.assertEquals(peak.get(), 3);
+		}
+	}
+}
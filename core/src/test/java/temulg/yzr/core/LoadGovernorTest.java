@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LoadGovernorTest {
+	private static class FakeReadings implements LoadGovernor.Readings {
+		@Override
+		public int cpuLimit() {
+			return cpuLimit;
+		}
+
+		@Override
+		public long memoryLimit() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public double loadAverage() {
+			return load;
+		}
+
+		@Override
+		public double pressure(String resource) {
+			return resource.equals("cpu") ? cpuStall : memoryStall;
+		}
+
+		@Override
+		public long nanoTime() {
+			return now;
+		}
+
+		/*
+		 * Advances the clock by a second, with load average following
+		 * the given number of runnable tasks the way the kernel does.
+		 */
+		void tick(int running) {
+			var decay = Math.exp(-1.0 / 60);
+			load = load * decay + running * (1 - decay);
+			now += TimeUnit.SECONDS.toNanos(1);
+		}
+
+		int cpuLimit = Integer.MAX_VALUE;
+		double load;
+		double cpuStall;
+		double memoryStall;
+		long now;
+	}
+
+	private static final int CPUS = 8;
+	private static final long MEMORY = 1L << 30;
+
+	@Test
+	public void cgroupLimit() {
+		var r = new FakeReadings();
+		r.cpuLimit = 4;
+		var pool = new ResourcePool(CPUS, MEMORY, CPUS);
+		new LoadGovernor(pool, CPUS, MEMORY, Metrics.NONE, r, CPUS);
+
+		Assert.assertEquals(pool.cpu(), 4);
+	}
+
+	/* Foreign load takes processors away; they come back gradually. */
+	@Test
+	public void foreignLoad() {
+		var r = new FakeReadings();
+		var pool = new ResourcePool(CPUS, MEMORY, CPUS);
+		var g = new LoadGovernor(
+			pool, CPUS, MEMORY, Metrics.NONE, r, CPUS
+		);
+
+		r.load = 6;
+		r.tick(6);
+		g.step();
+		Assert.assertEquals(pool.cpu(), 2);
+
+		r.load = 0;
+		var prev = pool.cpu();
+		while (pool.cpu() < CPUS) {
+			r.tick(0);
+			g.step();
+			Assert.assertTrue(pool.cpu() > prev);
+			Assert.assertTrue(pool.cpu() <= prev + Math.max(
+				1, prev / 4
+			));
+			prev = pool.cpu();
+		}
+	}
+
+	/* Load of our own actions, current or recent, is not foreign. */
+	@Test
+	public void ownLoad() {
+		var r = new FakeReadings();
+		var pool = new ResourcePool(CPUS, MEMORY, CPUS);
+		var g = new LoadGovernor(
+			pool, CPUS, MEMORY, Metrics.NONE, r, CPUS
+		);
+
+		Assert.assertTrue(pool.tryAcquire(6, 0, 0));
+		for (int pos = 0; pos < 600; pos++) {
+			r.tick(6);
+			g.step();
+			Assert.assertEquals(pool.cpu(), CPUS);
+		}
+
+		pool.release(6, 0, 0);
+		for (int pos = 0; pos < 60; pos++) {
+			r.tick(0);
+			g.step();
+			Assert.assertEquals(pool.cpu(), CPUS);
+		}
+	}
+
+	@Test
+	public void pressure() {
+		var r = new FakeReadings();
+		var pool = new ResourcePool(CPUS, MEMORY, CPUS);
+		var g = new LoadGovernor(
+			pool, CPUS, MEMORY, Metrics.NONE, r, CPUS
+		);
+
+		r.cpuStall = 50;
+		r.tick(0);
+		g.step();
+		Assert.assertEquals(pool.cpu(), 6);
+
+		r.cpuStall = 0;
+		r.tick(0);
+		g.step();
+		Assert.assertEquals(pool.cpu(), 7);
+
+		Assert.assertTrue(pool.tryAcquire(1, MEMORY / 4, 0));
+		r.memoryStall = 50;
+		r.tick(1);
+		g.step();
+		Assert.assertEquals(pool.memory(), MEMORY / 4);
+
+		r.memoryStall = 0;
+		r.tick(1);
+		g.step();
+		Assert.assertTrue(pool.memory() > MEMORY / 4);
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core.lib.fs;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import temulg.yzr.core.Context;
+import temulg.yzr.core.OpGraph;
+import temulg.yzr.core.PackSelector;
+import temulg.yzr.core.lib.fs.marks.Node;
+import temulg.yzr.core.lib.fs.ops.FileCreated;
+import temulg.yzr.core.lib.fs.ops.FileExists;
+import temulg.yzr.core.lib.os.ops.Exec;
+
+public class WatcherTest {
+	/* Waits for the file to get the expected content. */
+	private static boolean awaitContent(
+		Path p, String expected
+	) throws Exception {
+		var deadline = System.currentTimeMillis() + 10000;
+
+		while (System.currentTimeMillis() < deadline) {
+			if (
+				Files.exists(p)
+				&& expected.equals(Files.readString(p))
+			)
+				return true;
+
+			Thread.sleep(20);
+		}
+		return false;
+	}
+
+	/* Editing a source file gets its consumers rebuilt. */
+	@Test
+	public void rebuildsOnEdit() throws Exception {
+		var dir = Files.createTempDirectory("yzr-watch");
+		var src = Files.writeString(dir.resolve("src.txt"), "a");
+		var dst = dir.resolve("dst.txt");
+
+		var in = new FileExists(Node.of(src.toString()));
+		var cp = Exec.builder().addArgument("cp").addRequisite(
+		).addProduct(Node.of(dst.toString())).build();
+		var out = new FileCreated(Node.of(dst.toString()));
+
+		var opg = new OpGraph();
+		opg.Add(in, FileExists.PRODUCT, cp, PackSelector.positional(0));
+		opg.Add(
+			cp, PackSelector.positional(0),
+			out, FileCreated.REQUISITE
+		);
+
+		var ctx = new Context();
+		var w = new Watcher(ctx, opg, List.of(out));
+		var t = new Thread(() -> {
+			try {
+				w.run();
+			} catch (Exception ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		t.start();
+
+		try {
+			Assert.assertTrue(awaitContent(dst, "a"));
+
+			/* Let the watcher get done with the initial build. */
+			Thread.sleep(200);
+			Files.writeString(src, "b");
+			Files.setLastModifiedTime(src, FileTime.fromMillis(
+				Files.getLastModifiedTime(src).toMillis() + 1000
+			));
+			Assert.assertTrue(awaitContent(dst, "b"));
+		} finally {
+			w.close();
+			t.join(10000);
+			ctx.shutdown();
+		}
+
+		Assert.assertFalse(t.isAlive());
+		Files.delete(src);
+		Files.delete(dst);
+		Files.delete(dir);
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.core.lib.fs.marks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class DigestCacheTest {
+	private static Path write(
+		Path p, String s, Instant mtime
+	) throws Exception {
+		Files.writeString(p, s);
+		Files.setLastModifiedTime(p, FileTime.from(mtime));
+		return p;
+	}
+
+	/* Same size rewrite keeping the time stamp of a fresh file. */
+	@Test
+	public void racyRewrite() throws Exception {
+		var dir = Files.createTempDirectory("yzr-digest");
+		var dc = new DigestCache(16);
+		var now = Instant.now();
+		var f = write(dir.resolve("f"), "aaaa", now);
+
+		var d0 = dc.digest(f);
+		Assert.assertEquals(dc.size(), 0);
+
+		write(f, "bbbb", now);
+		Assert.assertNotEquals(dc.digest(f), d0);
+
+		Files.delete(f);
+		Files.delete(dir);
+	}
+
+	@Test
+	public void bounded() throws Exception {
+		var dir = Files.createTempDirectory("yzr-digest");
+		var dc = new DigestCache(8);
+		var old = Instant.now().minusSeconds(3600);
+		var fs = new Path[20];
+
+		for (int pos = 0; pos < fs.length; pos++) {
+			fs[pos] = write(
+				dir.resolve("f" + pos), "x" + pos, old
+			);
+			dc.digest(fs[pos]);
+			Assert.assertTrue(dc.size() <= 8);
+		}
+
+		/* Only the latest version of a file is kept. */
+		dc.clear();
+		var d0 = dc.digest(fs[0]);
+		write(fs[0], "y0", old.plusSeconds(1));
+		Assert.assertNotEquals(dc.digest(fs[0]), d0);
+		Assert.assertEquals(dc.size(), 1);
+
+		for (var f: fs)
+			Files.delete(f);
+		Files.delete(dir);
+	}
+}
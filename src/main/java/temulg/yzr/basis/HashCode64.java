@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.basis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * 64 bit xxHash, suitable for content digests. Multi-byte input values are
+ * consumed in little endian byte order, so that hashing a sequence of longs
+ * produces the same digest as hashing their in-memory representation on
+ * x86 and friends.
+ */
+public class HashCode64 {
+	private HashCode64() {
+	}
+
+	public static long of(long v) {
+		long h = XXHASH_SEED + XXHASH_PRIME64_4 + 8;
+
+		return xxHashAvalanche(ofTail(h, v));
+	}
+
+	public static long of(long... v) {
+		var s = new Stream();
+		for (var w: v)
+			s.update(w);
+
+		return s.digest();
+	}
+
+	public static long of(ByteBuffer b_) {
+		var b = b_.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int pos = b.position();
+		int last = b.limit();
+		long h;
+
+		if ((last - pos) >= 32) {
+			long v0 = XXHASH_SEED + XXHASH_PRIME64_0
+				+ XXHASH_PRIME64_1;
+			long v1 = XXHASH_SEED + XXHASH_PRIME64_1;
+			long v2 = XXHASH_SEED;
+			long v3 = XXHASH_SEED - XXHASH_PRIME64_0;
+
+			for (; (last - pos) >= 32; pos += 32) {
+				v0 = xxHashRound(v0, b.getLong(pos));
+				v1 = xxHashRound(v1, b.getLong(pos + 8));
+				v2 = xxHashRound(v2, b.getLong(pos + 16));
+				v3 = xxHashRound(v3, b.getLong(pos + 24));
+			}
+
+			h = mergeAccumulators(v0, v1, v2, v3);
+		} else
+			h = XXHASH_SEED + XXHASH_PRIME64_4;
+
+		h += last - b.position();
+		return xxHashAvalanche(ofTail(h, b, pos, last));
+	}
+
+	/**
+	 * Incremental form of the hash, for inputs which do not fit into
+	 * a single buffer, such as large memory mapped files.
+	 */
+	public static class Stream {
+		public Stream update(long v) {
+			if ((stripe.position() & 7) == 0) {
+				stripe.putLong(v);
+				if (!stripe.hasRemaining())
+					consumeStripe();
+
+				return this;
+			}
+
+			for (int shift = 0; shift < 64; shift += 8) {
+				stripe.put((byte)(v >>> shift));
+				if (!stripe.hasRemaining())
+					consumeStripe();
+			}
+
+			return this;
+		}
+
+		public Stream update(ByteBuffer b_) {
+			var b = b_.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+			while (b.hasRemaining() && stripe.position() > 0) {
+				stripe.put(b.get());
+				if (!stripe.hasRemaining())
+					consumeStripe();
+			}
+
+			int pos = b.position();
+			int last = b.limit();
+
+			for (; (last - pos) >= 32; pos += 32) {
+				v0 = xxHashRound(v0, b.getLong(pos));
+				v1 = xxHashRound(v1, b.getLong(pos + 8));
+				v2 = xxHashRound(v2, b.getLong(pos + 16));
+				v3 = xxHashRound(v3, b.getLong(pos + 24));
+				length += 32;
+			}
+
+			for (; pos < last; pos++)
+				stripe.put(b.get(pos));
+
+			return this;
+		}
+
+		public long digest() {
+			long h;
+			int tail = stripe.position();
+
+			if (length > 0)
+				h = mergeAccumulators(v0, v1, v2, v3);
+			else
+				h = XXHASH_SEED + XXHASH_PRIME64_4;
+
+			h += length + tail;
+			return xxHashAvalanche(ofTail(h, stripe, 0, tail));
+		}
+
+		private void consumeStripe() {
+			v0 = xxHashRound(v0, stripe.getLong(0));
+			v1 = xxHashRound(v1, stripe.getLong(8));
+			v2 = xxHashRound(v2, stripe.getLong(16));
+			v3 = xxHashRound(v3, stripe.getLong(24));
+			length += 32;
+			stripe.clear();
+		}
+
+		private long v0 = XXHASH_SEED + XXHASH_PRIME64_0
+			+ XXHASH_PRIME64_1;
+		private long v1 = XXHASH_SEED + XXHASH_PRIME64_1;
+		private long v2 = XXHASH_SEED;
+		private long v3 = XXHASH_SEED - XXHASH_PRIME64_0;
+		private long length;
+		private final ByteBuffer stripe = ByteBuffer.allocate(
+			32
+		).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static long ofTail(long h, long v) {
+		h ^= xxHashRound(0, v);
+		return Long.rotateLeft(h, 27) * XXHASH_PRIME64_0
+			+ XXHASH_PRIME64_3;
+	}
+
+	private static long ofTail(long h, ByteBuffer b, int pos, int last) {
+		for (; (last - pos) >= 8; pos += 8)
+			h = ofTail(h, b.getLong(pos));
+
+		if ((last - pos) >= 4) {
+			h ^= (b.getInt(pos) & 0xffffffffL) * XXHASH_PRIME64_0;
+			h = Long.rotateLeft(h, 23) * XXHASH_PRIME64_1
+				+ XXHASH_PRIME64_2;
+			pos += 4;
+		}
+
+		for (; pos < last; pos++) {
+			h ^= (b.get(pos) & 0xffL) * XXHASH_PRIME64_4;
+			h = Long.rotateLeft(h, 11) * XXHASH_PRIME64_0;
+		}
+
+		return h;
+	}
+
+	private static long mergeAccumulators(
+		long v0, long v1, long v2, long v3
+	) {
+		long h = Long.rotateLeft(v0, 1) + Long.rotateLeft(v1, 7)
+			+ Long.rotateLeft(v2, 12) + Long.rotateLeft(v3, 18);
+
+		h = xxHashMergeRound(h, v0);
+		h = xxHashMergeRound(h, v1);
+		h = xxHashMergeRound(h, v2);
+		return xxHashMergeRound(h, v3);
+	}
+
+	private static long xxHashRound(long h, long v) {
+		h += v * XXHASH_PRIME64_1;
+		h = Long.rotateLeft(h, 31);
+		return h * XXHASH_PRIME64_0;
+	}
+
+	private static long xxHashMergeRound(long h, long v) {
+		h ^= xxHashRound(0, v);
+		return h * XXHASH_PRIME64_0 + XXHASH_PRIME64_3;
+	}
+
+	private static long xxHashAvalanche(long h) {
+		h ^= h >>> 33;
+		h *= XXHASH_PRIME64_1;
+		h ^= h >>> 29;
+		h *= XXHASH_PRIME64_2;
+		h ^= h >>> 32;
+		return h;
+	}
+
+	private static final long XXHASH_SEED = 0;
+	private static final long XXHASH_PRIME64_0 = 0x9e3779b185ebca87L;
+	private static final long XXHASH_PRIME64_1 = 0xc2b2ae3d27d4eb4fL;
+	private static final long XXHASH_PRIME64_2 = 0x165667b19e3779f9L;
+	private static final long XXHASH_PRIME64_3 = 0x85ebca77c2b2ae63L;
+	private static final long XXHASH_PRIME64_4 = 0x27d4eb2f165667c5L;
+}
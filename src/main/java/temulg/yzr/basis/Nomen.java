@@ -9,6 +9,7 @@ package temulg.yzr.basis;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.PrimitiveIterator;
 import java.nio.ByteOrder;
 import java.nio.ByteBuffer;
 import java.io.IOException;
@@ -78,6 +79,27 @@ public class Nomen implements Iterable<Nomen> {
 		}
 	}
 
+	public static Nomen fromUtf8(byte[] b) {
+		return fromUtf8(b, 0, b.length);
+	}
+
+	public static Nomen fromUtf8(byte[] b, int off, int len) {
+		return fromUtf8Impl(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * Makes Nomen out of "/" delimited path, given as UTF-8 bytes between
+	 * position and limit of the buffer, without decoding it. Position
+	 * of the buffer is left unchanged.
+	 *
+	 * Empty elements (leading, trailing or repeated delimiters) are
+	 * skipped. Bytes are taken as they are, so they are expected to be
+	 * valid UTF-8.
+	 */
+	public static Nomen fromUtf8(ByteBuffer b) {
+		return fromUtf8Impl(b.duplicate().order(ByteOrder.BIG_ENDIAN));
+	}
+
 	public static Comparator<Nomen> lexicographicOrder() {
 		return LEXICOGRAPHIC_ORDER;
 	}
@@ -157,14 +179,30 @@ public class Nomen implements Iterable<Nomen> {
 
 	@Override
 	public boolean equals(Object other) {
+		if (other == this)
+			return true;
+
 		if (other instanceof Nomen) {
-			return (other == this) || Arrays.equals(
-				value, ((Nomen)other).value
-			);
+			var n = (Nomen)other;
+
+			/* Cached hashes, if present, rule out most misses. */
+			if (hash != 0 && n.hash != 0 && hash != n.hash)
+				return false;
+
+			return Arrays.equals(value, n.value);
 		} else
 			return false;
 	}
 
+	/**
+	 * Returns the canonical instance equal to this one, so that equal
+	 * names share storage and mostly compare by identity. Canonical
+	 * instances are held weakly and dropped once no longer in use.
+	 */
+	public Nomen intern() {
+		return isEmpty() ? EMPTY : INTERNED.intern(this);
+	}
+
 	public void toUtf8Channel(
 		WritableByteChannel ch, String delim_
 	) throws IOException {
@@ -321,9 +359,7 @@ public class Nomen implements Iterable<Nomen> {
 			w, other.value[wordPos]
 		) == bytePos))
 			return true;
-		else if ((other.value.length > value.length) && (
-			(other.value[wordPos + 1] & 0x80) != 0
-		))
+		else if (endsAtWordOf(w, other, wordPos))
 			return true;
 
 		return false;
@@ -366,9 +402,7 @@ public class Nomen implements Iterable<Nomen> {
 				other.value, makePos(wordPos, bytePos),
 				other.lastSepPos()
 			));
-		} else if ((other.value.length > value.length) && (
-			(other.value[wordPos + 1] & 0x80) != 0
-		)) {
+		} else if (endsAtWordOf(w, other, wordPos)) {
 			return makeFromOtherAligned(
 				other, wordPos + 1,
 				other.value.length - wordPos - 1
@@ -378,6 +412,17 @@ public class Nomen implements Iterable<Nomen> {
 		throw new NomenException.NotASubNomen(this, other);
 	}
 
+	/*
+	 * Tells whether the last word of a prefix, being full, ends at the
+	 * element boundary in the other Nomen: the words may only differ in
+	 * the 'z' marker and the next word must begin with a separator.
+	 */
+	private static boolean endsAtWordOf(long w, Nomen other, int wordPos) {
+		return (other.value.length > wordPos + 1) && (
+			(w ^ other.value[wordPos]) == 1
+		) && ((other.value[wordPos + 1] & 0x80) != 0);
+	}
+
 	public Nomen commonPrefix(Nomen other) {
 		if (isEmpty())
 			return this;
@@ -572,6 +617,197 @@ public class Nomen implements Iterable<Nomen> {
 		};
 	}
 
+	/**
+	 * Returns a cursor positioned before the first element.
+	 */
+	public Cursor cursor() {
+		return new Cursor().reset(this);
+	}
+
+	/**
+	 * Cursor walks elements of a Nomen in place, without materializing
+	 * them as separate Nomen instances, and may be reset to walk other
+	 * names. Element bytes are addressed within the concatenation of all
+	 * element bytes of the name, separators not counted.
+	 */
+	public static class Cursor {
+		public Cursor reset(Nomen n_) {
+			n = n_;
+			first = 0;
+			last = 0;
+			index = -1;
+			return this;
+		}
+
+		/**
+		 * Advances to the next element, returning false once there
+		 * are none left.
+		 */
+		public boolean next() {
+			long pos = n.nextSepPos(last);
+			if (pos == last)
+				return false;
+
+			first = last;
+			last = pos;
+			index++;
+			return true;
+		}
+
+		public int index() {
+			return index;
+		}
+
+		public int byteOffset() {
+			return linearPos(first);
+		}
+
+		public int byteLength() {
+			return linearPos(last) - linearPos(first);
+		}
+
+		public byte byteAt(int pos) {
+			if ((pos < 0) || (pos >= byteLength()))
+				throw new IndexOutOfBoundsException(pos);
+
+			pos += byteOffset();
+			return (byte)(
+				n.value[pos / 7] >>> (56 - ((pos % 7) << 3))
+			);
+		}
+
+		/**
+		 * Hash code of the current element, same as the one of
+		 * {@link #toNomen} (or {@link Nomen#get}).
+		 */
+		public int elementHash() {
+			words.reset();
+			return HashCode32.of(words);
+		}
+
+		public boolean elementEquals(Cursor other) {
+			int len = byteLength();
+			if (len != other.byteLength())
+				return false;
+
+			int pos = byteOffset();
+			int otherPos = other.byteOffset();
+
+			for (int off = 0; off < len; off += 7) {
+				int count = Math.min(7, len - off);
+
+				if (loadBytes(
+					n.value, pos + off, count
+				) != loadBytes(
+					other.n.value, otherPos + off, count
+				))
+					return false;
+			}
+
+			return true;
+		}
+
+		/**
+		 * Compares current elements the way
+		 * {@link Nomen#LEXICOGRAPHIC_ORDER} compares them, taken as
+		 * names of one element.
+		 */
+		public int compareElement(Cursor other) {
+			int len = byteLength();
+			int otherLen = other.byteLength();
+			int minLen = Math.min(len, otherLen);
+			int pos = byteOffset();
+			int otherPos = other.byteOffset();
+
+			for (int off = 0; off < minLen; off += 7) {
+				int count = Math.min(7, minLen - off);
+				long w0 = loadBytes(n.value, pos + off, count);
+				long w1 = loadBytes(
+					other.n.value, otherPos + off, count
+				);
+
+				if (w0 != w1)
+					return Long.compareUnsigned(w0, w1);
+			}
+
+			return Integer.compare(len, otherLen);
+		}
+
+		public Nomen toNomen() {
+			return new Nomen(copyAlignByteRange(
+				n.value, first, last
+			));
+		}
+
+		@Override
+		public String toString() {
+			var b = new byte[byteLength()];
+			for (int pos = 0; pos < b.length; pos++)
+				b[pos] = byteAt(pos);
+
+			return new String(b, StandardCharsets.UTF_8);
+		}
+
+		private static int linearPos(long pos) {
+			return (int)(pos >>> 3) * 7 + (int)(pos & 7);
+		}
+
+		/*
+		 * Returns count (1 to 7) bytes starting at linear byte
+		 * position, aligned to the top of the word.
+		 */
+		private static long loadBytes(
+			long[] value, int pos, int count
+		) {
+			int wordPos = pos / 7;
+			int shift = (pos % 7) << 3;
+			long w = (value[wordPos] & BYTE_MASK) << shift;
+
+			if ((count << 3) > 56 - shift)
+				w |= value[wordPos + 1] >>> (56 - shift);
+
+			return w & (-1L << ((8 - count) << 3));
+		}
+
+		/* Packed words of the current element, as subNomen has them. */
+		private class ElementWords implements PrimitiveIterator.OfLong {
+			void reset() {
+				off = 0;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return off < byteLength();
+			}
+
+			@Override
+			public long nextLong() {
+				int len = byteLength();
+				int count = Math.min(7, len - off);
+				long w = loadBytes(
+					n.value, byteOffset() + off, count
+				);
+
+				if (off == 0)
+					w |= 0x80;
+
+				off += count;
+				if (off == len)
+					w |= count < 7 ? 0x80 >>> count : 1;
+
+				return w;
+			}
+
+			private int off;
+		}
+
+		private final ElementWords words = new ElementWords();
+		private Nomen n = EMPTY;
+		private long first;
+		private long last;
+		private int index = -1;
+	}
+
 	public void dump(PrintStream s) {
 		s.append('[');
 		int pos = 0;
@@ -674,7 +910,12 @@ public class Nomen implements Iterable<Nomen> {
 		return b;
 	}
 
-	private int byteSize() {
+	/* Packed words, shared with NomenTrie; never to be modified. */
+	long[] words() {
+		return value;
+	}
+
+	int byteSize() {
 		if (value.length > 0) {
 			return 7 * value.length - ByteHelper.trailingZeros(
 				(byte)value[value.length - 1]
@@ -684,27 +925,24 @@ public class Nomen implements Iterable<Nomen> {
 		}
 	}
 
-	private static int lastCommonSep(long w0, long w1) {
+	/*
+	 * Separator is common to both words when it is set in both, and all
+	 * bytes and separators preceding it are the same.
+	 */
+	static int lastCommonSep(long w0, long w1) {
 		if ((byte)(w0 & w1) == 0)
 			return -1;
 
 		var diff = w0 ^ w1;
-		byte sep = (byte)(diff & 0xff);
 		var byteCount = Long.numberOfLeadingZeros(diff) >>> 3;
+		var sepCount = ByteHelper.leadingZeros((byte)diff);
 
-		var byteMask = (0xff00 >> (byteCount + 1)) & 0xff;
-
-		if (sep == 0)
-			return 7 - ByteHelper.trailingZeros(
-				(byte)(w0 & byteMask)
-			);
-
-		var sepMask = (
-			0xff00 >> (7 - ByteHelper.trailingZeros(sep))
-		) & 0xff;
+		var last = Math.min(Math.min(byteCount, sepCount - 1), 6);
+		if (last < 0)
+			return -1;
 
-		sep = (byte)(w0 & sepMask & byteMask);
-		return 7 - ByteHelper.trailingZeros(sep);
+		var sepMask = (0xff00 >> (last + 1)) & 0xff;
+		return 7 - ByteHelper.trailingZeros((byte)(w0 & sepMask));
 	}
 
 	private static long adjustLastSep(long w, int bytePos) {
@@ -729,6 +967,93 @@ public class Nomen implements Iterable<Nomen> {
 		return ((w << bitShift) & (BYTE_MASK << bitShift)) | sep;
 	}
 
+	/*
+	 * Elements are found 8 bytes at a time and copied over up to 7 bytes
+	 * at a time, as many as fit into the current word.
+	 */
+	private static Nomen fromUtf8Impl(ByteBuffer b) {
+		int last = b.limit();
+		int pos = b.position();
+		int byteSize = last - pos;
+
+		for (; pos + 8 <= last; pos += 8)
+			byteSize -= Long.bitCount(delimMask(b.getLong(pos)));
+
+		for (; pos < last; pos++) {
+			if (b.get(pos) == '/')
+				byteSize--;
+		}
+
+		if (byteSize == 0)
+			return EMPTY;
+
+		var n = makeFromByteSize(byteSize);
+		int outPos = 0;
+
+		pos = b.position();
+		while (true) {
+			while ((pos < last) && (b.get(pos) == '/'))
+				pos++;
+
+			if (pos == last)
+				break;
+
+			var end = nextDelim(b, pos, last);
+			n.value[outPos / 7] |= 0x80 >>> (outPos % 7);
+
+			while (pos < end) {
+				int bytePos = outPos % 7;
+				int count = Math.min(7 - bytePos, end - pos);
+				long w = (pos + 8 <= last)
+					? b.getLong(pos)
+					: loadTail(b, pos, end);
+
+				w &= -1L << ((8 - count) << 3);
+				n.value[outPos / 7] |= w >>> (bytePos << 3);
+				pos += count;
+				outPos += count;
+			}
+		}
+
+		if ((outPos % 7) != 0)
+			n.value[outPos / 7] |= 0x80 >>> (outPos % 7);
+		else
+			n.value[n.value.length - 1] |= 1;
+
+		return n;
+	}
+
+	/* High bit set in every byte equal to '/', and nowhere else. */
+	private static long delimMask(long w) {
+		long x = w ^ 0x2f2f2f2f2f2f2f2fL;
+		return ~(((x & 0x7f7f7f7f7f7f7f7fL) + 0x7f7f7f7f7f7f7f7fL)
+			| x | 0x7f7f7f7f7f7f7f7fL);
+	}
+
+	private static int nextDelim(ByteBuffer b, int pos, int last) {
+		for (; pos + 8 <= last; pos += 8) {
+			long m = delimMask(b.getLong(pos));
+			if (m != 0)
+				return pos + (
+					Long.numberOfLeadingZeros(m) >>> 3
+				);
+		}
+
+		while ((pos < last) && (b.get(pos) != '/'))
+			pos++;
+
+		return pos;
+	}
+
+	private static long loadTail(ByteBuffer b, int pos, int end) {
+		long w = 0;
+
+		for (int shift = 56; pos < end; pos++, shift -= 8)
+			w |= (b.get(pos) & 0xffL) << shift;
+
+		return w;
+	}
+
 	private static Nomen makeFromByteSize(long byteSize) {
 		return new Nomen(new long[(int)(
 			byteSize % 7 > 0 ? byteSize / 7 + 1 : byteSize / 7
@@ -837,6 +1162,11 @@ public class Nomen implements Iterable<Nomen> {
 		value = value_;
 	}
 
+	/* Takes ownership of the packed words, as kept by NomenArena. */
+	static Nomen fromWords(long[] value) {
+		return value.length > 0 ? new Nomen(value) : EMPTY;
+	}
+
 	private class Inserter {
 		void acceptCodePoint(int cp) {
 			int blen = Utf8Helper.encodedBitLength(cp);
@@ -866,7 +1196,7 @@ public class Nomen implements Iterable<Nomen> {
 		Nomen
 	> LEXICOGRAPHIC_ORDER = new LexicographicComparator();
 
-	private static class LexicographicComparator
+	static class LexicographicComparator
 	implements Comparator<Nomen> {
 		@Override
 		public int compare(Nomen l, Nomen r) {
@@ -937,7 +1267,7 @@ public class Nomen implements Iterable<Nomen> {
 			rw |= (w >>> 2) & bmask;
 			rw |= sepMask;
 
-			long sep = w & 0xf7;
+			long sep = w & 0xfe;
 			sep |= sep << 8;
 			sep |= sep << 16;
 			sep |= sep << 32;
@@ -946,11 +1276,11 @@ public class Nomen implements Iterable<Nomen> {
 			return rw ^ sep;
 		}
 
-		private static long reorderWord(long w) {
+		static long reorderWord(long w) {
 			return reorderWordPartial(w, EXPANDED_SEP_MASK);
 		}
 
-		private static long reorderLastWord(long w) {
+		static long reorderLastWord(long w) {
 			return reorderWordPartial(
 				w,
 				EXPANDED_SEP_MASK
@@ -966,6 +1296,8 @@ public class Nomen implements Iterable<Nomen> {
 
 	public static final Nomen EMPTY = new Nomen(new long[0]);
 
+	private static final NomenTable INTERNED = new NomenTable();
+
 	private final long[] value;
 	private int hash;
 }
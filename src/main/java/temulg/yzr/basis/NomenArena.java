@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.basis;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * NomenArena keeps packed words of many Nomen values contiguously in off
+ * heap slabs, so that a large set of names costs little more than its
+ * UTF-8 payload and nothing in GC work. Names are addressed by long
+ * handles and are never removed one by one; the whole arena is released
+ * at once on close.
+ *
+ * Record layout (8 byte aligned):
+ * [ int word count ] [ int hash code ] [ packed words ]
+ *
+ * Handles carry slab index in the upper half and record offset in the
+ * lower one. Adding is serialized, while reading handles already handed
+ * out takes no locks, only a shared counter of readers in progress.
+ */
+public class NomenArena implements AutoCloseable {
+	public synchronized long add(Nomen n) {
+		var words = n.words();
+		var recSize = HEADER_SIZE + (words.length << 3);
+
+		if ((current == null) || (
+			current.capacity() - currentPos < recSize
+		))
+			newSlab(recSize);
+
+		var pos = currentPos;
+		current.putInt(pos, words.length);
+		current.putInt(pos + 4, n.hashCode());
+		for (int wordPos = 0; wordPos < words.length; wordPos++)
+			current.putLong(
+				pos + HEADER_SIZE + (wordPos << 3),
+				words[wordPos]
+			);
+
+		currentPos += recSize;
+		count++;
+		used += recSize;
+		return (((long)(slabs.length - 1)) << 32) | pos;
+	}
+
+	public Nomen get(long h) {
+		var ss = enter();
+		try {
+			return getImpl(ss, h);
+		} finally {
+			exit();
+		}
+	}
+
+	/**
+	 * Returns the same value {@link Nomen#hashCode} does for the name
+	 * added.
+	 */
+	public int hashCode(long h) {
+		var ss = enter();
+		try {
+			return slab(ss, h).getInt(offset(h) + 4);
+		} finally {
+			exit();
+		}
+	}
+
+	public boolean equals(long h0, long h1) {
+		if (h0 == h1)
+			return true;
+
+		var ss = enter();
+		try {
+			return equalsImpl(ss, h0, h1);
+		} finally {
+			exit();
+		}
+	}
+
+	public boolean equals(long h, Nomen n) {
+		var ss = enter();
+		try {
+			return equalsImpl(ss, h, n);
+		} finally {
+			exit();
+		}
+	}
+
+	/**
+	 * Compares names the way {@link Nomen#LEXICOGRAPHIC_ORDER} does.
+	 */
+	public int compare(long h0, long h1) {
+		var ss = enter();
+		try {
+			return compareHandles(ss, h0, h1);
+		} finally {
+			exit();
+		}
+	}
+
+	/**
+	 * Tells whether the first name is a prefix of the second one, the
+	 * way {@link Nomen#isPrefixOf} does.
+	 */
+	public boolean isPrefixOf(long h0, long h1) {
+		var ss = enter();
+		try {
+			return isPrefixOfImpl(ss, h0, h1);
+		} finally {
+			exit();
+		}
+	}
+
+	/**
+	 * Number of names added.
+	 */
+	public synchronized long count() {
+		return count;
+	}
+
+	/**
+	 * Bytes taken by names added, headers included.
+	 */
+	public synchronized long used() {
+		return used;
+	}
+
+	/**
+	 * Releases all memory of the arena at once; handles handed out
+	 * become invalid.
+	 *
+	 * Readers do not lock, but announce themselves on a counter: once
+	 * the arena is marked closed, reads already in progress are waited
+	 * for before the memory is freed, and reads started afterwards fail
+	 * with IllegalStateException.
+	 */
+	@Override
+	public synchronized void close() {
+		var ss = slabs;
+		slabs = null;
+		current = null;
+
+		if (ss == null)
+			return;
+
+		while (readers.get() != 0)
+			Thread.onSpinWait();
+
+		for (var s: ss)
+			free(s);
+	}
+
+	private static Nomen getImpl(ByteBuffer[] ss, long h) {
+		var s = slab(ss, h);
+		var pos = offset(h);
+		var words = new long[s.getInt(pos)];
+
+		for (int wordPos = 0; wordPos < words.length; wordPos++)
+			words[wordPos] = word(s, pos, wordPos);
+
+		return Nomen.fromWords(words);
+	}
+
+	private static boolean equalsImpl(ByteBuffer[] ss, long h0, long h1) {
+		var s0 = slab(ss, h0);
+		var s1 = slab(ss, h1);
+		var pos0 = offset(h0);
+		var pos1 = offset(h1);
+		var len = s0.getInt(pos0);
+
+		if ((len != s1.getInt(pos1)) || (
+			s0.getInt(pos0 + 4) != s1.getInt(pos1 + 4)
+		))
+			return false;
+
+		for (int wordPos = 0; wordPos < len; wordPos++) {
+			if (word(s0, pos0, wordPos) != word(s1, pos1, wordPos))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static boolean equalsImpl(ByteBuffer[] ss, long h, Nomen n) {
+		var s = slab(ss, h);
+		var pos = offset(h);
+		var words = n.words();
+
+		if ((words.length != s.getInt(pos)) || (
+			n.hashCode() != s.getInt(pos + 4)
+		))
+			return false;
+
+		for (int wordPos = 0; wordPos < words.length; wordPos++) {
+			if (word(s, pos, wordPos) != words[wordPos])
+				return false;
+		}
+
+		return true;
+	}
+
+	private static int compareHandles(
+		ByteBuffer[] ss, long h0, long h1
+	) {
+		var s0 = slab(ss, h0);
+		var s1 = slab(ss, h1);
+		var pos0 = offset(h0);
+		var pos1 = offset(h1);
+		var len0 = s0.getInt(pos0);
+		var len1 = s1.getInt(pos1);
+
+		if ((len0 == 0) || (len1 == 0))
+			return Integer.compare(len0, len1);
+
+		if (len0 <= len1)
+			return compareImpl(s0, pos0, len0, s1, pos1, len1);
+		else
+			return -compareImpl(s1, pos1, len1, s0, pos0, len0);
+	}
+
+	private static boolean isPrefixOfImpl(
+		ByteBuffer[] ss, long h0, long h1
+	) {
+		var s0 = slab(ss, h0);
+		var s1 = slab(ss, h1);
+		var pos0 = offset(h0);
+		var pos1 = offset(h1);
+		var len0 = s0.getInt(pos0);
+		var len1 = s1.getInt(pos1);
+
+		if ((len0 == 0) || (len1 == 0))
+			return true;
+
+		if (len0 > len1)
+			return false;
+
+		int wordPos = 0;
+		for (; wordPos < len0; wordPos++) {
+			if (word(s0, pos0, wordPos) != word(s1, pos1, wordPos))
+				break;
+		}
+
+		switch (len0 - wordPos) {
+		case 1:
+			break;
+		case 0:
+			if (len1 == len0)
+				return true;
+			else {
+				wordPos--;
+				break;
+			}
+		default:
+			return false;
+		}
+
+		long w = word(s0, pos0, wordPos);
+		long ow = word(s1, pos1, wordPos);
+		int bytePos = 7 - ByteHelper.trailingZeros((byte)w);
+
+		if ((bytePos < 7) && (Nomen.lastCommonSep(w, ow) == bytePos))
+			return true;
+
+		return (len1 > wordPos + 1) && ((w ^ ow) == 1) && (
+			(word(s1, pos1, wordPos + 1) & 0x80) != 0
+		);
+	}
+
+	private static int compareImpl(
+		ByteBuffer ls, int lpos, int llen,
+		ByteBuffer rs, int rpos, int rlen
+	) {
+		int last = llen - 1;
+
+		for (int pos = 0; pos < last; pos++) {
+			long lw = word(ls, lpos, pos);
+			long rw = word(rs, rpos, pos);
+
+			if (lw == rw)
+				continue;
+
+			return order(lw) > order(rw) ? 1 : -1;
+		}
+
+		long lw = word(ls, lpos, last);
+		long rw = word(rs, rpos, last);
+
+		if (lw != rw) {
+			long w0 = orderLast(lw);
+			if (llen < rlen)
+				return w0 > order(rw) ? 1 : -1;
+
+			long w1 = orderLast(rw);
+			if (w0 != w1)
+				return w0 > w1 ? 1 : -1;
+		}
+
+		return 0;
+	}
+
+	private static long order(long w) {
+		return Nomen.LexicographicComparator.reorderWord(w);
+	}
+
+	private static long orderLast(long w) {
+		return Nomen.LexicographicComparator.reorderLastWord(w);
+	}
+
+	private void newSlab(int recSize) {
+		var s = ByteBuffer.allocateDirect(
+			Math.max(recSize, SLAB_SIZE)
+		).order(ByteOrder.nativeOrder());
+
+		var ss = slabs;
+		if (ss == null)
+			throw new IllegalStateException("arena closed");
+
+		ss = Arrays.copyOf(ss, ss.length + 1);
+		ss[ss.length - 1] = s;
+		current = s;
+		currentPos = 0;
+		slabs = ss;
+	}
+
+	/*
+	 * The counter is raised before the slabs are picked up, while close()
+	 * drops the slabs before checking the counter, so either the reader
+	 * sees the arena closed or close() sees the reader.
+	 */
+	private ByteBuffer[] enter() {
+		readers.incrementAndGet();
+
+		var ss = slabs;
+		if (ss == null) {
+			exit();
+			throw new IllegalStateException("arena closed");
+		}
+
+		return ss;
+	}
+
+	private void exit() {
+		readers.decrementAndGet();
+	}
+
+	private static ByteBuffer slab(ByteBuffer[] ss, long h) {
+		return ss[(int)(h >>> 32)];
+	}
+
+	private static int offset(long h) {
+		return (int)h;
+	}
+
+	private static long word(ByteBuffer s, int pos, int wordPos) {
+		return s.getLong(pos + HEADER_SIZE + (wordPos << 3));
+	}
+
+	/*
+	 * Direct buffers are otherwise only released once collected, which
+	 * may take a while for buffers surviving long enough to matter.
+	 */
+	private static void free(ByteBuffer s) {
+		if (CLEANER == null)
+			return;
+
+		try {
+			CLEANER.invokeExact(s);
+		} catch (RuntimeException | Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/* Unsafe.invokeCleaner, looked up so as not to link against it. */
+	private static MethodHandle findCleaner() {
+		try {
+			var cls = Class.forName("sun.misc.Unsafe");
+			var f = cls.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+
+			return MethodHandles.lookup().findVirtual(
+				cls, "invokeCleaner", MethodType.methodType(
+					void.class, ByteBuffer.class
+				)
+			).bindTo(f.get(null));
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private static final MethodHandle CLEANER = findCleaner();
+
+	private static final int HEADER_SIZE = 8;
+	private static final int SLAB_SIZE = 1 << 20;
+
+	private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+	private final AtomicInteger readers = new AtomicInteger();
+	private ByteBuffer current;
+	private int currentPos;
+	private long count;
+	private long used;
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.basis;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * NomenTable is a concurrent set of weakly held Nomen instances, one per
+ * distinct value, used for interning. Entries of collected instances are
+ * expunged whenever the table is consulted.
+ */
+class NomenTable {
+	Nomen intern(Nomen n) {
+		expunge();
+
+		var e = map.get(new Probe(n));
+		if (e != null) {
+			var en = e.get();
+			if (en != null)
+				return en;
+		}
+
+		var ne = new Entry(n, queue);
+		while (true) {
+			e = map.putIfAbsent(ne, ne);
+			if (e == null)
+				return n;
+
+			var en = e.get();
+			if (en != null)
+				return en;
+
+			/* Cleared, but not yet expunged. */
+			map.remove(e, e);
+		}
+	}
+
+	int size() {
+		expunge();
+		return map.size();
+	}
+
+	private void expunge() {
+		Object e;
+		while ((e = queue.poll()) != null)
+			map.remove(e, e);
+	}
+
+	/*
+	 * Cleared entries are only equal to themselves, so that they can
+	 * be removed without disturbing a live entry of the same value.
+	 */
+	private static class Entry extends WeakReference<Nomen> {
+		Entry(Nomen n, ReferenceQueue<Nomen> queue) {
+			super(n, queue);
+			hash = n.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (other == this)
+				return true;
+
+			if (!(other instanceof Entry))
+				return false;
+
+			var n = get();
+			return n != null && n.equals(((Entry)other).get());
+		}
+
+		private final int hash;
+	}
+
+	/* Lookup key, saving a reference allocation on hits. */
+	private static class Probe {
+		Probe(Nomen n_) {
+			n = n_;
+		}
+
+		@Override
+		public int hashCode() {
+			return n.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return (other instanceof Entry) && n.equals(
+				((Entry)other).get()
+			);
+		}
+
+		private final Nomen n;
+	}
+
+	private final ConcurrentHashMap<
+		Entry, Entry
+	> map = new ConcurrentHashMap<>();
+	private final ReferenceQueue<Nomen> queue = new ReferenceQueue<>();
+}
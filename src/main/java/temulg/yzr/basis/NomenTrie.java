@@ -0,0 +1,494 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.basis;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * NomenTrie is a radix trie mapping Nomen keys to values, indexed directly
+ * on the packed words of Nomen.
+ *
+ * Keys are taken as sequences of tokens, one per UTF-8 byte, each token
+ * consisting of the byte and the separator marker preceding it. Edge
+ * labels are token ranges of the packed words of some key passing through
+ * the edge, so that labels are compared against a key a whole word (7
+ * tokens) at a time, words of both being at the same alignment. Children
+ * are ordered by their first token, separator first, which makes depth
+ * first traversal follow Nomen.LEXICOGRAPHIC_ORDER.
+ *
+ * Writers are serialized, while readers never lock: nodes are never
+ * restructured in place, but replaced in their parents' children arrays,
+ * which are never modified once published.
+ */
+public class NomenTrie<V> {
+	public int size() {
+		return size;
+	}
+
+	public V get(Nomen key) {
+		var words = key.words();
+		var len = key.byteSize();
+		var n = root;
+
+		while (n.last < len) {
+			n = n.child(tokenKey(words, n.last));
+			if ((n == null) || (n.last > len) || (
+				mismatch(words, n.words, n.first, n.last)
+				< n.last
+			))
+				return null;
+		}
+
+		var e = n.entry;
+		return e != null ? e.getValue() : null;
+	}
+
+	/**
+	 * Returns the entry with the longest key being a prefix of the
+	 * given one (as per {@link Nomen#isPrefixOf}), or null if none.
+	 * Unlike with isPrefixOf, the empty key only has itself for a
+	 * prefix.
+	 */
+	public Map.Entry<Nomen, V> longestPrefixOf(Nomen key) {
+		var words = key.words();
+		var len = key.byteSize();
+		var n = root;
+		Map.Entry<Nomen, V> out = null;
+
+		while (true) {
+			var e = n.entry;
+			if ((e != null) && (
+				(n.last == len) || isSeparator(words, n.last)
+			))
+				out = e;
+
+			if (n.last == len)
+				return out;
+
+			n = n.child(tokenKey(words, n.last));
+			if ((n == null) || (n.last > len) || (
+				mismatch(words, n.words, n.first, n.last)
+				< n.last
+			))
+				return out;
+		}
+	}
+
+	/**
+	 * Visits all entries with keys having the given prefix (as per
+	 * {@link Nomen#isPrefixOf}), in {@link Nomen#LEXICOGRAPHIC_ORDER}.
+	 * The empty key is only taken to be under the empty prefix.
+	 */
+	public void forEachUnder(Nomen prefix, BiConsumer<Nomen, V> cons) {
+		var words = prefix.words();
+		var len = prefix.byteSize();
+		var n = root;
+
+		while (n.last < len) {
+			n = n.child(tokenKey(words, n.last));
+			if (n == null)
+				return;
+
+			var end = Math.min(n.last, len);
+			if (mismatch(words, n.words, n.first, end) < end)
+				return;
+
+			if (n.last > len) {
+				if (isSeparator(n.words, len))
+					visit(n, cons);
+
+				return;
+			}
+		}
+
+		var e = n.entry;
+		if (e != null)
+			cons.accept(e.getKey(), e.getValue());
+
+		for (var c: n.children()) {
+			if (!isSeparator(c.words, c.first))
+				break;
+
+			visit(c, cons);
+		}
+	}
+
+	public synchronized V put(Nomen key, V value) {
+		var words = key.words();
+		var len = key.byteSize();
+		var entry = new AbstractMap.SimpleImmutableEntry<>(key, value);
+		var n = root;
+
+		while (n.last < len) {
+			var c = n.child(tokenKey(words, n.last));
+			if (c == null) {
+				n.insertChild(
+					new Node<>(words, n.last, len, entry)
+				);
+				size++;
+				return null;
+			}
+
+			var end = Math.min(c.last, len);
+			var pos = mismatch(words, c.words, c.first, end);
+
+			if (pos < c.last) {
+				var m = new Node<V>(
+					c.words, c.first, pos, null
+				);
+				var tail = c.withFirst(pos);
+
+				if (pos == len) {
+					m.entry = entry;
+					Node<V>[] cs = newNodes(1);
+					cs[0] = tail;
+					m.setChildren(cs);
+				} else {
+					var leaf = new Node<>(
+						words, pos, len, entry
+					);
+					var tailFirst = tail.key() < leaf.key();
+					Node<V>[] cs = newNodes(2);
+					cs[tailFirst ? 0 : 1] = tail;
+					cs[tailFirst ? 1 : 0] = leaf;
+					m.setChildren(cs);
+				}
+
+				n.replaceChild(c, m);
+				size++;
+				return null;
+			}
+
+			n = c;
+		}
+
+		var prev = n.entry;
+		n.entry = entry;
+
+		if (prev != null)
+			return prev.getValue();
+
+		size++;
+		return null;
+	}
+
+	public synchronized V remove(Nomen key) {
+		var words = key.words();
+		var len = key.byteSize();
+		var path = new ArrayList<Node<V>>();
+		var n = root;
+
+		while (true) {
+			path.add(n);
+			if (n.last == len)
+				break;
+
+			n = n.child(tokenKey(words, n.last));
+			if ((n == null) || (n.last > len) || (
+				mismatch(words, n.words, n.first, n.last)
+				< n.last
+			))
+				return null;
+		}
+
+		var prev = n.entry;
+		if (prev == null)
+			return null;
+
+		n.entry = null;
+		size--;
+		compact(path);
+		return prev.getValue();
+	}
+
+	/**
+	 * Removes all entries with keys having the given prefix (as per
+	 * {@link Nomen#isPrefixOf}), returning the number of entries
+	 * removed.
+	 */
+	public synchronized int removeUnder(Nomen prefix) {
+		var words = prefix.words();
+		var len = prefix.byteSize();
+		var path = new ArrayList<Node<V>>();
+		var n = root;
+		int count = 0;
+
+		path.add(n);
+		while (n.last < len) {
+			var c = n.child(tokenKey(words, n.last));
+			if (c == null)
+				return 0;
+
+			var end = Math.min(c.last, len);
+			if (mismatch(words, c.words, c.first, end) < end)
+				return 0;
+
+			if (c.last > len) {
+				if (!isSeparator(c.words, len))
+					return 0;
+
+				count = countEntries(c);
+				n.removeChild(c);
+				size -= count;
+				compact(path);
+				return count;
+			}
+
+			n = c;
+			path.add(n);
+		}
+
+		if (n.entry != null) {
+			n.entry = null;
+			count++;
+		}
+
+		var children = n.children();
+		int first = 0;
+		for (; first < children.length; first++) {
+			if (!isSeparator(
+				children[first].words, children[first].first
+			))
+				break;
+
+			count += countEntries(children[first]);
+		}
+
+		if (first > 0)
+			n.removeFirstChildren(first);
+
+		size -= count;
+		compact(path);
+		return count;
+	}
+
+	private void visit(Node<V> n, BiConsumer<Nomen, V> cons) {
+		var e = n.entry;
+		if (e != null)
+			cons.accept(e.getKey(), e.getValue());
+
+		for (var c: n.children())
+			visit(c, cons);
+	}
+
+	private int countEntries(Node<V> n) {
+		int count = n.entry != null ? 1 : 0;
+
+		for (var c: n.children())
+			count += countEntries(c);
+
+		return count;
+	}
+
+	/*
+	 * Restores the invariant of every node but the root either holding
+	 * an entry or having at least two children, walking up the path.
+	 */
+	private void compact(ArrayList<Node<V>> path) {
+		for (int pos = path.size() - 1; pos > 0; pos--) {
+			var n = path.get(pos);
+			if (n.entry != null)
+				return;
+
+			var parent = path.get(pos - 1);
+
+			var children = n.children();
+			switch (children.length) {
+			case 0:
+				parent.removeChild(n);
+				break;
+			case 1:
+				parent.replaceChild(
+					n, children[0].withFirst(n.first)
+				);
+				return;
+			default:
+				return;
+			}
+		}
+	}
+
+	private static int tokenKey(long[] words, int pos) {
+		long w = words[pos / 7];
+		int bytePos = pos % 7;
+		int b = (int)(w >>> (56 - (bytePos << 3))) & 0xff;
+		int sep = (int)(w >>> (7 - bytePos)) & 1;
+
+		return ((sep ^ 1) << 8) | b;
+	}
+
+	private static boolean isSeparator(long[] words, int pos) {
+		return ((words[pos / 7] >>> (7 - (pos % 7))) & 1) != 0;
+	}
+
+	/*
+	 * Returns position of the first token in [first, last) differing
+	 * between the two word arrays, or last if none do.
+	 */
+	private static int mismatch(
+		long[] w0, long[] w1, int first, int last
+	) {
+		int pos = first;
+
+		while (pos < last) {
+			int wordPos = pos / 7;
+			int bytePos = pos % 7;
+			int lastBytePos = Math.min(7, bytePos + last - pos);
+
+			long diff = (
+				w0[wordPos] ^ w1[wordPos]
+			) & tokenMask(bytePos, lastBytePos);
+
+			if (diff != 0) {
+				int b = Long.numberOfLeadingZeros(
+					diff & ~0xffL
+				) >>> 3;
+				int s = Integer.numberOfLeadingZeros(
+					(int)diff & 0xff
+				) - 24;
+
+				return wordPos * 7 + Math.min(b, s);
+			}
+
+			pos += lastBytePos - bytePos;
+		}
+
+		return last;
+	}
+
+	private static long tokenMask(int first, int last) {
+		long bytes = (-1L >>> (first << 3)) & ~(-1L >>> (last << 3));
+		long seps = (0xffL >>> first) & ~(0xffL >>> last);
+		return bytes | seps;
+	}
+
+	/*
+	 * Node covers tokens [first, last) of its words, which hold the
+	 * whole token path [0, last) from the root.
+	 */
+	private static class Node<V> {
+		Node(
+			long[] words_, int first_, int last_,
+			Map.Entry<Nomen, V> entry_
+		) {
+			words = words_;
+			first = first_;
+			last = last_;
+			entry = entry_;
+		}
+
+		Node<V> withFirst(int first_) {
+			var n = new Node<V>(words, first_, last, entry);
+			n.branch = branch;
+			return n;
+		}
+
+		int key() {
+			return tokenKey(words, first);
+		}
+
+		Node<V>[] children() {
+			return branch.nodes;
+		}
+
+		void setChildren(Node<V>[] nodes) {
+			var keys = new int[nodes.length];
+			for (int pos = 0; pos < nodes.length; pos++)
+				keys[pos] = nodes[pos].key();
+
+			branch = new Branch<>(keys, nodes);
+		}
+
+		/*
+		 * First tokens of children are kept aside, so that the
+		 * search does not touch children other than the one found.
+		 */
+		Node<V> child(int key) {
+			var b = branch;
+			var pos = Arrays.binarySearch(b.keys, key);
+			return pos >= 0 ? b.nodes[pos] : null;
+		}
+
+		void insertChild(Node<V> c) {
+			var b = branch;
+			var pos = -Arrays.binarySearch(b.keys, c.key()) - 1;
+			var cs = b.nodes;
+
+			var next = Arrays.copyOf(cs, cs.length + 1);
+			System.arraycopy(
+				cs, pos, next, pos + 1, cs.length - pos
+			);
+			next[pos] = c;
+			setChildren(next);
+		}
+
+		void replaceChild(Node<V> c, Node<V> other) {
+			var next = children().clone();
+
+			for (int pos = 0; pos < next.length; pos++) {
+				if (next[pos] == c) {
+					next[pos] = other;
+					break;
+				}
+			}
+
+			setChildren(next);
+		}
+
+		void removeChild(Node<V> c) {
+			var cs = children();
+			var next = Arrays.copyOf(cs, cs.length - 1);
+			int pos = 0;
+
+			for (var n: cs) {
+				if (n != c)
+					next[pos++] = n;
+			}
+
+			setChildren(next);
+		}
+
+		void removeFirstChildren(int count) {
+			var cs = children();
+			setChildren(Arrays.copyOfRange(cs, count, cs.length));
+		}
+
+		final long[] words;
+		final int first;
+		final int last;
+		volatile Map.Entry<Nomen, V> entry;
+		@SuppressWarnings("unchecked")
+		volatile Branch<V> branch = (Branch<V>)EMPTY_BRANCH;
+	}
+
+	private static class Branch<V> {
+		Branch(int[] keys_, Node<V>[] nodes_) {
+			keys = keys_;
+			nodes = nodes_;
+		}
+
+		final int[] keys;
+		final Node<V>[] nodes;
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static <V> Node<V>[] newNodes(int length) {
+		return (Node<V>[])new Node[length];
+	}
+
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static final Branch<?> EMPTY_BRANCH = new Branch<>(
+		new int[0], new Node[0]
+	);
+
+	private final Node<V> root = new Node<>(new long[0], 0, 0, null);
+	private volatile int size;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.basis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class HashCode64Test {
+	private static long ofString(String s) {
+		return HashCode64.of(ByteBuffer.wrap(
+			s.getBytes(StandardCharsets.UTF_8)
+		));
+	}
+
+	@Test
+	public void referenceValues() throws Exception {
+		Assert.assertEquals(ofString(""), 0xef46db3751d8e999L);
+		Assert.assertEquals(ofString("a"), 0xd24ec4f1a98c6e5bL);
+		Assert.assertEquals(ofString("abc"), 0x44bc2cf5ad770999L);
+		Assert.assertEquals(
+			ofString("Nobody inspects the spammish repetition"),
+			0xfbcea83c8a378bf1L
+		);
+	}
+
+	@Test
+	public void streamMatchesBuffer() throws Exception {
+		var r = ThreadLocalRandom.current();
+
+		for (int count = 0; count < 16; count++) {
+			var b = new byte[r.nextInt(0, 4096)];
+			r.nextBytes(b);
+
+			var s = new HashCode64.Stream();
+			for (int pos = 0; pos < b.length;) {
+				int len = Math.min(
+					r.nextInt(1, 100), b.length - pos
+				);
+				s.update(ByteBuffer.wrap(b, pos, len));
+				pos += len;
+			}
+
+			Assert.assertEquals(
+				s.digest(), HashCode64.of(ByteBuffer.wrap(b))
+			);
+		}
+	}
+
+	@Test
+	public void longsMatchBuffer() throws Exception {
+		var r = ThreadLocalRandom.current();
+		var v = new long[r.nextInt(1, 64)];
+		var b = ByteBuffer.allocate(v.length << 3).order(
+			ByteOrder.LITTLE_ENDIAN
+		);
+
+		for (int pos = 0; pos < v.length; pos++) {
+			v[pos] = r.nextLong();
+			b.putLong(v[pos]);
+		}
+		b.flip();
+
+		Assert.assertEquals(HashCode64.of(v), HashCode64.of(b));
+		Assert.assertEquals(
+			HashCode64.of(v[0]), HashCode64.of(new long[] {v[0]})
+		);
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.basis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class NomenArenaTest {
+	private static List<Nomen> prefixes(List<CharSequence> ss) {
+		var out = new ArrayList<Nomen>();
+		for (int pos = 0; pos <= ss.size(); pos++)
+			out.add(Nomen.from(ss.subList(0, pos)));
+
+		return out;
+	}
+
+	private static void assertMatches(
+		NomenArena a, long h0, long h1, Nomen n0, Nomen n1
+	) {
+		var cmp = Nomen.lexicographicOrder();
+
+		Assert.assertEquals(a.equals(h0, h1), n0.equals(n1));
+		Assert.assertEquals(
+			Integer.signum(a.compare(h0, h1)),
+			Integer.signum(cmp.compare(n0, n1))
+		);
+		Assert.assertEquals(a.isPrefixOf(h0, h1), n0.isPrefixOf(n1));
+	}
+
+	@Test(
+		dataProvider = "randomStringList_2",
+		dataProviderClass = StringGenerator.class
+	)
+	public void matchesNomen(
+		List<CharSequence> ss0, List<CharSequence> ss1
+	) throws Exception {
+		var ns = prefixes(ss0);
+		ns.addAll(prefixes(ss1));
+
+		try (var a = new NomenArena()) {
+			var hs = new long[ns.size()];
+			for (int pos = 0; pos < hs.length; pos++)
+				hs[pos] = a.add(ns.get(pos));
+
+			Assert.assertEquals(a.count(), hs.length);
+
+			for (int l = 0; l < hs.length; l++) {
+				var n = ns.get(l);
+
+				Assert.assertEquals(
+					(Object)a.get(hs[l]), (Object)n
+				);
+				Assert.assertEquals(
+					a.hashCode(hs[l]), n.hashCode()
+				);
+				Assert.assertTrue(a.equals(hs[l], n));
+
+				for (int r = 0; r < hs.length; r++)
+					assertMatches(
+						a, hs[l], hs[r], n, ns.get(r)
+					);
+			}
+		}
+	}
+
+	@Test
+	public void largeNames() throws Exception {
+		var el = "x".repeat(1 << 16);
+		var ns = new ArrayList<Nomen>();
+
+		var a = new NomenArena();
+		var hs = new ArrayList<Long>();
+
+		try {
+			for (int pos = 0; pos < 40; pos++) {
+				var n = Nomen.from(el, Integer.toString(pos));
+				ns.add(n);
+				hs.add(a.add(n));
+			}
+
+			for (int pos = 0; pos < ns.size(); pos++) {
+				var h = hs.get(pos);
+				Assert.assertTrue(a.equals(h, ns.get(pos)));
+			}
+		} finally {
+			a.close();
+		}
+
+		Assert.assertThrows(
+			IllegalStateException.class, () -> a.get(hs.get(0))
+		);
+	}
+
+	/* Readers racing with close either succeed or see it closed. */
+	@Test
+	public void closeWhileReading() throws Exception {
+		var a = new NomenArena();
+		var n = Nomen.from("a", "b", "c");
+		var h = a.add(n);
+		var failure = new AtomicReference<Throwable>();
+		var started = new CountDownLatch(1);
+
+		var reader = new Thread(() -> {
+			try {
+				while (true) {
+					Assert.assertTrue(a.equals(h, n));
+					Assert.assertEquals(a.get(h), n);
+					started.countDown();
+				}
+			} catch (IllegalStateException ex) {
+				/* Arena closed. */
+			} catch (Throwable ex) {
+				failure.set(ex);
+			} finally {
+				started.countDown();
+			}
+		});
+		reader.start();
+
+		started.await();
+		a.close();
+		reader.join();
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+	}
+}
@@ -8,9 +8,12 @@ package temulg.yzr.basis;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.testng.Assert;
@@ -27,6 +30,16 @@ public class NomenTest {
 		}
 	}
 
+	/* UTF-8 bytes of the only element of a name. */
+	private static byte[] elementUtf8(Nomen n) {
+		try (var os = new ByteArrayOutputStream()) {
+			n.toUtf8Channel(Channels.newChannel(os), "");
+			return os.toByteArray();
+		} catch (IOException ex) {
+			throw new AssertionError(ex);
+		}
+	}
+
 	private static void assertEquals(Nomen actual, Nomen expected) {
 		Assert.assertEquals((Object)actual, (Object)expected);
 	}
@@ -59,6 +72,55 @@ public class NomenTest {
 		Assert.assertEquals(n4.size(), 3);
 	}
 
+	@Test
+	public void orderSeparators() throws Exception {
+		var cmp = Nomen.lexicographicOrder();
+
+		for (int len = 1; len < 16; len++) {
+			var s = "a".repeat(len);
+			var n0 = Nomen.from(s, "b");
+			var n1 = Nomen.from(s + "a");
+
+			Assert.assertTrue(cmp.compare(n0, n1) < 0, s);
+			Assert.assertTrue(cmp.compare(n1, n0) > 0, s);
+		}
+	}
+
+	@Test
+	public void prefixNegative() throws Exception {
+		var n0 = Nomen.from("bb");
+		var n1 = Nomen.from("bba", "c");
+		Assert.assertFalse(n0.isPrefixOf(n1));
+		assertEquals(n0.commonPrefix(n1), Nomen.EMPTY);
+
+		var n2 = Nomen.from("\u00e9ab");
+		var n3 = Nomen.from("ab\u00e9bbb", "b\u00e9b", "b");
+		Assert.assertFalse(n2.isPrefixOf(n3));
+		Assert.assertThrows(
+			NomenException.NotASubNomen.class,
+			() -> n2.relativize(n3)
+		);
+	}
+
+	/*
+	 * Prefix with a full last word, differing from the other name within
+	 * that word, while the next word of the other name starts an element.
+	 */
+	@Test
+	public void prefixFullWord() throws Exception {
+		var n0 = Nomen.from("abcdefg");
+		var n1 = Nomen.from("abcdefh", "x");
+		Assert.assertFalse(n0.isPrefixOf(n1));
+		Assert.assertThrows(
+			NomenException.NotASubNomen.class,
+			() -> n0.relativize(n1)
+		);
+
+		var n2 = Nomen.from("abcdefg", "x");
+		Assert.assertTrue(n0.isPrefixOf(n2));
+		assertEquals(n0.relativize(n2), Nomen.from("x"));
+	}
+
 	@Test(
 		dataProvider = "randomStringList_1",
 		dataProviderClass = StringGenerator.class
@@ -96,6 +158,37 @@ public class NomenTest {
 		Assert.assertEquals(n, nl1);
 	}
 
+	@Test(
+		dataProvider = "randomStringList_1",
+		dataProviderClass = StringGenerator.class
+	)
+	public void fromUtf8(List<CharSequence> ss) throws Exception {
+		var b = String.join("/", ss).getBytes(StandardCharsets.UTF_8);
+
+		/* Unpaired surrogates do not survive encoding. */
+		var elems = new ArrayList<CharSequence>();
+		for (var el: new String(b, StandardCharsets.UTF_8).split("/")) {
+			if (!el.isEmpty())
+				elems.add(el);
+		}
+		var n = Nomen.from(elems);
+
+		assertEquals(Nomen.fromUtf8(b), n);
+
+		var padded = new byte[b.length + 5];
+		Arrays.fill(padded, (byte)'/');
+		System.arraycopy(b, 0, padded, 2, b.length);
+		assertEquals(Nomen.fromUtf8(padded), n);
+		assertEquals(Nomen.fromUtf8(padded, 2, b.length), n);
+
+		var d = ByteBuffer.allocateDirect(b.length + 1).order(
+			ByteOrder.LITTLE_ENDIAN
+		);
+		d.put((byte)'x').put(b).flip().position(1);
+		assertEquals(Nomen.fromUtf8(d), n);
+		Assert.assertEquals(d.position(), 1);
+	}
+
 	@Test(
 		dataProvider = "randomStringList_2",
 		dataProviderClass = StringGenerator.class
@@ -309,4 +402,110 @@ public class NomenTest {
 		// Compare as Iterable
 		Assert.assertEquals(n0, n1);
 	}
+
+	@Test(
+		dataProvider = "randomStringList_1",
+		dataProviderClass = StringGenerator.class
+	)
+	public void intern(List<CharSequence> ss) throws Exception {
+		var n0 = Nomen.from(ss).intern();
+		var n1 = Nomen.from(ss);
+
+		Assert.assertSame(n1.intern(), n0);
+		Assert.assertSame(n0.intern(), n0);
+		assertEquals(n1, n0);
+
+		if (ss.isEmpty())
+			Assert.assertSame(n0, Nomen.EMPTY);
+		else
+			Assert.assertNotSame(
+				n1.cat(Nomen.from("x")).intern(), n0
+			);
+	}
+
+	@Test(
+		dataProvider = "randomStringList_1",
+		dataProviderClass = StringGenerator.class
+	)
+	public void cursor(List<CharSequence> ss) throws Exception {
+		var n = Nomen.from(ss);
+		var c = n.cursor();
+		int offset = 0;
+
+		for (int pos = 0; pos < ss.size(); pos++) {
+			var el = n.get(pos);
+			var b = elementUtf8(el);
+
+			Assert.assertTrue(c.next());
+			Assert.assertEquals(c.index(), pos);
+			Assert.assertEquals(c.byteOffset(), offset);
+			Assert.assertEquals(c.byteLength(), b.length);
+			for (int bp = 0; bp < b.length; bp++)
+				Assert.assertEquals(c.byteAt(bp), b[bp]);
+
+			Assert.assertEquals(c.elementHash(), el.hashCode());
+			assertEquals(c.toNomen(), el);
+			offset += b.length;
+		}
+
+		Assert.assertFalse(c.next());
+		Assert.assertFalse(c.next());
+		Assert.assertEquals(c.index(), ss.size() - 1);
+		Assert.assertFalse(c.reset(Nomen.EMPTY).next());
+	}
+
+	private static void assertCursorsMatch(
+		Nomen.Cursor c0, Nomen.Cursor c1, Nomen r
+	) {
+		var cmp = Nomen.lexicographicOrder();
+
+		while (c0.next()) {
+			var le = c0.toNomen();
+
+			c1.reset(r);
+			while (c1.next()) {
+				var re = r.get(c1.index());
+
+				Assert.assertEquals(
+					c0.elementEquals(c1), le.equals(re)
+				);
+				Assert.assertEquals(
+					Integer.signum(c0.compareElement(c1)),
+					Integer.signum(cmp.compare(le, re))
+				);
+			}
+		}
+	}
+
+	@Test(
+		dataProvider = "randomStringList_2",
+		dataProviderClass = StringGenerator.class
+	)
+	public void cursorCompare(
+		List<CharSequence> ss0, List<CharSequence> ss1
+	) throws Exception {
+		var n0 = Nomen.from(ss0);
+		var n1 = Nomen.from(ss1);
+		var c0 = new Nomen.Cursor();
+		var c1 = new Nomen.Cursor();
+
+		for (var l: List.of(n0, n1)) {
+			for (var r: List.of(n0, n1))
+				assertCursorsMatch(c0.reset(l), c1, r);
+		}
+
+		var c = Nomen.from("abcdefgh", "abcdefg", "abcdefgh").cursor();
+		c0.reset(Nomen.from("abcdefgh"));
+		c0.next();
+
+		Assert.assertTrue(c.next());
+		Assert.assertTrue(c.elementEquals(c0));
+		Assert.assertTrue(c.next());
+		Assert.assertEquals(c.toString(), "abcdefg");
+		Assert.assertTrue(c.compareElement(c0) < 0);
+		Assert.assertTrue(c0.compareElement(c) > 0);
+		Assert.assertTrue(c.next());
+		Assert.assertEquals(c.compareElement(c0), 0);
+		Assert.assertEquals(c.byteOffset(), 15);
+	}
 }
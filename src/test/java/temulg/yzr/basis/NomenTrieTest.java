@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2019 Alex Dubov <oakad@yahoo.com>
+ *
+ * SPDX-License-Identifier: GPL-3.0-or-later
+ */
+
+package temulg.yzr.basis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class NomenTrieTest {
+	/*
+	 * Names over a small alphabet, so that elements share prefixes and
+	 * cross word boundaries at different offsets.
+	 */
+	private static TreeSet<Nomen> genNomens(Random r, int count) {
+		var out = new TreeSet<Nomen>(Nomen.lexicographicOrder());
+
+		while (out.size() < count) {
+			var elems = new String[r.nextInt(5)];
+			for (int pos = 0; pos < elems.length; pos++) {
+				var sb = new StringBuilder();
+				for (int len = 1 + r.nextInt(9); len > 0; len--)
+					sb.append(ALPHABET.charAt(
+						r.nextInt(ALPHABET.length())
+					));
+
+				elems[pos] = sb.toString();
+			}
+			out.add(Nomen.from(elems));
+		}
+
+		return out;
+	}
+
+	private static NomenTrie<Nomen> makeTrie(Iterable<Nomen> ns) {
+		var t = new NomenTrie<Nomen>();
+		for (var n: ns)
+			Assert.assertNull(t.put(n, n));
+
+		return t;
+	}
+
+	private static List<Nomen> under(NomenTrie<Nomen> t, Nomen prefix) {
+		var out = new ArrayList<Nomen>();
+		t.forEachUnder(prefix, (k, v) -> {
+			Assert.assertSame(k, v);
+			out.add(k);
+		});
+		return out;
+	}
+
+	private static List<Nomen> underScan(Iterable<Nomen> ns, Nomen prefix) {
+		var out = new ArrayList<Nomen>();
+		for (var n: ns) {
+			if (n.isEmpty() && !prefix.isEmpty())
+				continue;
+
+			if (prefix.isPrefixOf(n))
+				out.add(n);
+		}
+		return out;
+	}
+
+	private static void assertOrdered(List<Nomen> ns) {
+		var order = Nomen.lexicographicOrder();
+		for (int pos = 1; pos < ns.size(); pos++)
+			Assert.assertTrue(
+				order.compare(ns.get(pos - 1), ns.get(pos)) < 0
+			);
+	}
+
+	@Test
+	public void getPut() throws Exception {
+		var ns = genNomens(new Random(SEED), 500);
+		var t = makeTrie(ns);
+
+		Assert.assertEquals(t.size(), ns.size());
+		for (var n: ns) {
+			var copy = n.isEmpty() ? n : n.subNomen(0, n.size());
+			Assert.assertSame(t.get(copy), n);
+			Assert.assertSame(t.put(n, n), n);
+		}
+
+		Assert.assertEquals(t.size(), ns.size());
+		Assert.assertNull(t.get(Nomen.from("abababababababa", "x")));
+	}
+
+	@Test
+	public void order() throws Exception {
+		var ns = genNomens(new Random(SEED), 500);
+		var t = makeTrie(ns);
+
+		Assert.assertEquals(under(t, Nomen.EMPTY), new ArrayList<>(ns));
+	}
+
+	@Test
+	public void prefix() throws Exception {
+		var r = new Random(SEED);
+		var ns = genNomens(r, 500);
+		var t = makeTrie(ns);
+
+		for (var q: genNomens(r, 200)) {
+			Assert.assertEquals(under(t, q), underScan(ns, q));
+
+			/* Empty Nomen takes everything for its prefix. */
+			if (q.isEmpty())
+				continue;
+
+			Nomen longest = null;
+			for (var n: ns) {
+				if (n.isPrefixOf(q) && (
+					longest == null
+					|| longest.size() < n.size()
+				))
+					longest = n;
+			}
+
+			var e = t.longestPrefixOf(q);
+			if (longest == null)
+				Assert.assertNull(e);
+			else
+				Assert.assertSame(e.getKey(), longest);
+		}
+	}
+
+	@Test
+	public void remove() throws Exception {
+		var r = new Random(SEED);
+		var ns = genNomens(r, 500);
+		var t = makeTrie(ns);
+		var rest = new TreeSet<Nomen>(ns);
+
+		for (var q: genNomens(r, 50)) {
+			var expected = underScan(rest, q);
+
+			Assert.assertEquals(t.removeUnder(q), expected.size());
+			rest.removeAll(expected);
+			Assert.assertEquals(t.size(), rest.size());
+			Assert.assertEquals(
+				under(t, Nomen.EMPTY), new ArrayList<>(rest)
+			);
+		}
+
+		for (var n: new ArrayList<>(rest)) {
+			Assert.assertSame(t.remove(n), n);
+			Assert.assertNull(t.remove(n));
+			Assert.assertNull(t.get(n));
+			rest.remove(n);
+			Assert.assertEquals(
+				under(t, Nomen.EMPTY), new ArrayList<>(rest)
+			);
+		}
+
+		Assert.assertEquals(t.size(), 0);
+	}
+
+	/*
+	 * Reader running alongside a writer always sees entries which are
+	 * not touched by the writer, and sees all entries in order.
+	 */
+	@Test
+	public void concurrentReader() throws Exception {
+		var r = new Random(SEED);
+		var all = new ArrayList<>(genNomens(r, 1000));
+		Collections.shuffle(all, r);
+
+		var stable = new TreeSet<Nomen>(Nomen.lexicographicOrder());
+		stable.addAll(all.subList(0, 500));
+		var churn = all.subList(500, all.size());
+		var t = makeTrie(stable);
+		var done = new AtomicBoolean();
+		var failure = new AtomicReference<Throwable>();
+
+		var reader = new Thread(() -> {
+			try {
+				do {
+					for (var n: stable)
+						Assert.assertSame(t.get(n), n);
+
+					var seen = under(t, Nomen.EMPTY);
+					assertOrdered(seen);
+					seen.retainAll(stable);
+					Assert.assertEquals(
+						seen, new ArrayList<>(stable)
+					);
+				} while (!done.get());
+			} catch (Throwable ex) {
+				failure.set(ex);
+			}
+		});
+		reader.start();
+
+		for (int round = 0; round < 20; round++) {
+			for (var n: churn)
+				Assert.assertNull(t.put(n, n));
+
+			for (var n: churn)
+				Assert.assertSame(t.remove(n), n);
+		}
+
+		done.set(true);
+		reader.join();
+		if (failure.get() != null)
+			throw new AssertionError(failure.get());
+
+		Assert.assertEquals(t.size(), stable.size());
+	}
+
+	private static final long SEED = 0x4e6f6d656eL;
+	private static final String ALPHABET = "ab\u00e9";
+}